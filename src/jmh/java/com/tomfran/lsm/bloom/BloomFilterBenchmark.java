@@ -29,13 +29,16 @@ public class BloomFilterBenchmark {
 
         static final int N = 1000000;
 
+        @Param({"standard", "blocked"})
+        String type;
+
         BloomFilter f;
         byte[][] keys = new byte[N][];
         int index;
 
         @Setup
         public void setup() {
-            f = new BloomFilter(N);
+            f = type.equals("blocked") ? new BlockedBloomFilter(N) : new BloomFilter(N);
             index = 0;
             for (int i = 0; i < N; i++)
                 keys[i] = getRandomByteArray();
@@ -0,0 +1,50 @@
+package com.tomfran.lsm.comparator;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KeyComparatorBenchmark {
+
+    @Benchmark
+    public void compare(ComparatorState s, Blackhole bh) {
+        bh.consume(s.comparator.compare(s.keys[s.index], s.keys[(s.index + 1) % ComparatorState.N]));
+
+        s.index = (s.index + 1) % ComparatorState.N;
+    }
+
+    @State(Scope.Thread)
+    public static class ComparatorState {
+
+        static final int N = 1024;
+
+        @Param({"lexicographic", "length-first"})
+        String type;
+
+        @Param({"16", "128"})
+        int length;
+
+        KeyComparator comparator;
+        byte[][] keys = new byte[N][];
+        int index;
+
+        @Setup
+        public void setup() {
+            comparator = type.equals("lexicographic") ? KeyComparator.LEXICOGRAPHIC : KeyComparator.LENGTH_FIRST;
+            index = 0;
+
+            // same length keys differing only in the last bytes, as keys sharing a long prefix
+            var rn = new Random(42);
+            for (int i = 0; i < N; i++) {
+                keys[i] = new byte[length];
+                keys[i][length - 1] = (byte) rn.nextInt();
+                keys[i][length - 2] = (byte) rn.nextInt();
+            }
+        }
+
+    }
+
+}
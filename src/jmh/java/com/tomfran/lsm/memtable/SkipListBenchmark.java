@@ -1,10 +1,12 @@
 package com.tomfran.lsm.memtable;
 
+import com.tomfran.lsm.comparator.KeyComparator;
 import com.tomfran.lsm.types.ByteArrayPair;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import static com.tomfran.lsm.TestUtils.getRandomPair;
@@ -35,6 +37,96 @@ public class SkipListBenchmark {
         s.index = (s.index + 1) % ListState.N;
     }
 
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void concurrentAddGet(ConcurrentListState s, ThreadState t, Blackhole bh) {
+        var item = s.items[t.index];
+
+        if (t.addGet[t.index])
+            s.l.add(item);
+        else
+            bh.consume(s.l.get(item.key()));
+
+        t.index = (t.index + 1) % ConcurrentListState.N;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void arenaAddGet(ConcurrentListState s, ThreadState t, Blackhole bh) {
+        var item = s.items[t.index];
+
+        if (t.addGet[t.index])
+            s.arena.add(item);
+        else
+            bh.consume(s.arena.get(item.key()));
+
+        t.index = (t.index + 1) % ConcurrentListState.N;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void lockedAddGet(ConcurrentListState s, ThreadState t, Blackhole bh) {
+        var item = s.items[t.index];
+
+        // baseline: the single-threaded list behind a monitor, as the tree used to do
+        synchronized (s.lock) {
+            if (t.addGet[t.index])
+                s.locked.add(item);
+            else
+                bh.consume(s.locked.get(item.key()));
+        }
+
+        t.index = (t.index + 1) % ConcurrentListState.N;
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConcurrentListState {
+
+        static final int N = 200000;
+
+        final Object lock = new Object();
+
+        ConcurrentSkipList l;
+        ArenaSkipList arena;
+        SkipList locked;
+        ByteArrayPair[] items;
+
+        @Setup
+        public void setup() {
+            l = new ConcurrentSkipList(N);
+            arena = new ArenaSkipList(N, KeyComparator.LEXICOGRAPHIC);
+            locked = new SkipList(N);
+
+            items = new ByteArrayPair[N];
+            for (int i = 0; i < N; i++) {
+                items[i] = getRandomPair();
+                if (i < N / 2) {
+                    l.add(items[i]);
+                    arena.add(items[i]);
+                    locked.add(items[i]);
+                }
+            }
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int index;
+        boolean[] addGet;
+
+        @Setup
+        public void setup() {
+            // each thread starts from a different position, writing one operation out of four
+            index = ThreadLocalRandom.current().nextInt(ConcurrentListState.N);
+            addGet = new boolean[ConcurrentListState.N];
+            for (int i = 0; i < ConcurrentListState.N; i++)
+                addGet[i] = ThreadLocalRandom.current().nextInt(4) == 0;
+        }
+
+    }
+
     @State(Scope.Thread)
     public static class ListState {
 
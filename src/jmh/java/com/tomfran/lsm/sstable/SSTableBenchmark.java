@@ -41,15 +41,48 @@ public class SSTableBenchmark {
         s.index = (s.index + 1) % s.skippedArray.length;
     }
 
+    @Benchmark
+    public void randomAccessCached(TableState s, Blackhole bh) {
+        var item = s.insertedArray[s.index];
+        var it = s.cachedSstable.get(item.key());
+
+        bh.consume(it);
+
+        s.index = (s.index + 1) % s.insertedArray.length;
+    }
+
+    @Benchmark
+    public void randomAccessMapped(TableState s, Blackhole bh) {
+        var item = s.insertedArray[s.index];
+        var it = s.mappedSstable.get(item.key());
+
+        bh.consume(it);
+
+        s.index = (s.index + 1) % s.insertedArray.length;
+    }
+
+    @Benchmark
+    public void negativeAccessMapped(TableState s, Blackhole bh) {
+        var item = s.skippedArray[s.index];
+        var it = s.mappedSstable.get(item.key());
+
+        bh.consume(it);
+
+        s.index = (s.index + 1) % s.skippedArray.length;
+    }
+
     @State(Scope.Thread)
     public static class TableState {
 
         final int NUM_ITEMS = 100000;
         final int SAMPLE_SIZE = 1000;
+        final long CACHE_SIZE = 1024 * 1024 * 256;
 
         ByteArrayPair[] insertedArray;
         ByteArrayPair[] skippedArray;
         SSTable sstable;
+        SSTable mappedSstable;
+        SSTable cachedSstable;
         Path dir = Path.of("sst_benchmark_");
 
         int index = 0;
@@ -84,7 +117,9 @@ public class SSTableBenchmark {
                     skipped.add(e);
             }
 
-            sstable = new SSTable(dir + "/sst", inserted.iterator(), SAMPLE_SIZE);
+            sstable = new SSTable(dir.toString(), inserted.iterator(), SAMPLE_SIZE);
+            mappedSstable = new SSTable(sstable.filename, new SSTableOptions().readMode(SSTableOptions.ReadMode.MMAP));
+            cachedSstable = new SSTable(sstable.filename, new SSTableOptions().blockCache(new BlockCache(CACHE_SIZE)));
 
             Collections.shuffle(inserted);
             Collections.shuffle(skipped);
@@ -95,6 +130,8 @@ public class SSTableBenchmark {
         @TearDown
         public void teardown() {
             sstable.close();
+            mappedSstable.close();
+            cachedSstable.close();
             deleteDir(dir);
         }
 
@@ -0,0 +1,72 @@
+package com.tomfran.lsm.tree;
+
+import com.tomfran.lsm.types.ByteArrayPair;
+import com.tomfran.lsm.utils.BenchmarkUtils;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static com.tomfran.lsm.utils.BenchmarkUtils.shuffleItems;
+
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class LSMTreeMultiGetBenchmark {
+
+    static final Path DIR = Path.of("tree_multiget_benchmark");
+    static final int NUM_ITEMS = 1000000;
+    // small memtables, so that keys are served by tables
+    static final int MEMTABLE_SIZE = 1024 * 1024 * 4;
+    static final int LEVEL_SIZE = 4;
+    static int index = 0;
+
+    @Param({"50", "500"})
+    int batchSize;
+
+    LSMTree tree;
+    ByteArrayPair[] items;
+    ObjectArrayList<byte[]> batch;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        tree = BenchmarkUtils.initTree(DIR, MEMTABLE_SIZE, LEVEL_SIZE);
+        items = BenchmarkUtils.fillItems(NUM_ITEMS);
+        for (var i : items)
+            tree.add(i);
+
+        // let flushes and compactions settle
+        Thread.sleep(10000);
+
+        shuffleItems(items);
+        batch = new ObjectArrayList<>(batchSize);
+    }
+
+    @TearDown
+    public void teardown() {
+        BenchmarkUtils.stopTreeAndCleanDisk(tree, DIR);
+    }
+
+    @Benchmark
+    public void loopedGet(Blackhole bh) {
+        nextBatch();
+        for (var key : batch)
+            bh.consume(tree.get(key));
+    }
+
+    @Benchmark
+    public void multiGet(Blackhole bh) {
+        nextBatch();
+        bh.consume(tree.multiGet(batch));
+    }
+
+    private void nextBatch() {
+        batch.clear();
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(items[index].key());
+            index = (index + 1) % NUM_ITEMS;
+        }
+    }
+
+}
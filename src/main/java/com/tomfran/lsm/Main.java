@@ -74,7 +74,7 @@ public class Main {
                     }
                     case "g", "get" -> {
                         byte[] value = tree.get(parts[1].getBytes());
-                        System.out.println((value == null || value.length == 0) ? "not found" : new String(value));
+                        System.out.println(value == null ? "not found" : new String(value));
                     }
                     case "p", "prt" -> System.out.println(tree);
                     case "h", "help" -> System.out.println(help);
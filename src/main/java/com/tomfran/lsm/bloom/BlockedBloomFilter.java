@@ -0,0 +1,123 @@
+package com.tomfran.lsm.bloom;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.log;
+
+/**
+ * Cache friendly Bloom filter, all the bits of a key fall in a single 512 bits block.
+ * <p>
+ * A standard filter sets hashCount bits spread over the whole array, hence a negative lookup
+ * can cost as many cache misses. Here the first hash picks a block of 8 longs, the size of a cache line,
+ * and the second one sets hashCount bits inside it, so a lookup touches a single block. Arrays are not
+ * aligned to cache lines, a block spans at most two adjacent ones, usually fetched together.
+ * Positions are computed with multiplications, shifts and masks, with no modulo.
+ * <p>
+ * Keys are not spread as evenly as in a standard filter, the false positive rate is higher for the same
+ * number of bits: about 20 bits per key reach 0.1%, against 14.4 for a standard filter. More probes than
+ * {@link #MAX_HASH_COUNT} only fill the crowded blocks faster, the hash count is capped to it.
+ */
+public class BlockedBloomFilter extends BloomFilter {
+
+    static final int BLOCK_BITS = 512;
+    static final int BLOCK_LONGS = BLOCK_BITS / 64;
+    static final int MAX_HASH_COUNT = 8;
+    // bits per key over a standard filter for the same rate, measured about 1.4, with some headroom
+    static final double BITS_OVERHEAD = 1.5;
+
+    final int numBlocks;
+
+    /**
+     * Create a new blocked Bloom filter with the default size and a false positive rate of 0.1%.
+     */
+    public BlockedBloomFilter() {
+        this(DEFAULT_SIZE, 0.001);
+    }
+
+    /**
+     * Create a new blocked Bloom filter with the given expected insertions and a false positive rate of 0.1%.
+     *
+     * @param expectedInsertions The number of expected insertions.
+     */
+    public BlockedBloomFilter(int expectedInsertions) {
+        this(expectedInsertions, 0.001);
+    }
+
+    /**
+     * Create a new blocked Bloom filter with the given expected insertions and false positive rate.
+     * <p>
+     * The size is rounded up to a whole number of blocks.
+     *
+     * @param expectedInsertions The number of expected insertions.
+     * @param falsePositiveRate  The desired false positive rate.
+     */
+    public BlockedBloomFilter(int expectedInsertions, double falsePositiveRate) {
+        this(blocks(expectedInsertions, falsePositiveRate) * BLOCK_BITS,
+             Math.min(MAX_HASH_COUNT, (int) ceil(-log(falsePositiveRate) / log(2))),
+             new long[blocks(expectedInsertions, falsePositiveRate) * BLOCK_LONGS]);
+    }
+
+    /**
+     * Create a new blocked Bloom filter from the given parameters.
+     *
+     * @param size      The size of the Bloom filter in bits, a multiple of the block size.
+     * @param hashCount The number of hash functions.
+     * @param bits      The bits of the Bloom filter.
+     */
+    public BlockedBloomFilter(int size, int hashCount, long[] bits) {
+        super(size, hashCount, bits);
+        this.numBlocks = bits.length / BLOCK_LONGS;
+    }
+
+    /**
+     * Get the number of bits per key reaching a false positive rate, about half more than a standard filter.
+     *
+     * @param falsePositiveRate The false positive rate.
+     * @return The number of bits per key.
+     */
+    public static double bitsPerKey(double falsePositiveRate) {
+        return BITS_OVERHEAD * BloomFilter.bitsPerKey(falsePositiveRate);
+    }
+
+    private static int blocks(int expectedInsertions, double falsePositiveRate) {
+        double size = -expectedInsertions * log(falsePositiveRate) / (log(2) * log(2));
+        return Math.max(1, (int) ceil(size / BLOCK_BITS));
+    }
+
+    @Override
+    public void addHash(long h1, long h2) {
+        int base = block(h1);
+        int a = (int) h2, b = (int) (h2 >>> 32) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (a + i * b) & (BLOCK_BITS - 1);
+            bits[base + (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    @Override
+    boolean mightContainHash(long h1, long h2) {
+        int base = block(h1);
+        int a = (int) h2, b = (int) (h2 >>> 32) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (a + i * b) & (BLOCK_BITS - 1);
+            if ((bits[base + (bit >>> 6)] & (1L << (bit & 63))) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Map a hash to the index of the first long of a block, scaling its high 32 bits to the number of blocks.
+     */
+    private int block(long h1) {
+        return (int) (((h1 >>> 32) * numBlocks) >>> 32) * BLOCK_LONGS;
+    }
+
+    @Override
+    int format() {
+        return FORMAT_BLOCKED;
+    }
+
+}
@@ -3,8 +3,6 @@ package com.tomfran.lsm.bloom;
 
 import com.tomfran.lsm.io.ExtendedInputStream;
 import com.tomfran.lsm.io.ExtendedOutputStream;
-import it.unimi.dsi.fastutil.longs.LongLongMutablePair;
-import it.unimi.dsi.fastutil.longs.LongLongPair;
 import org.apache.commons.codec.digest.MurmurHash3;
 
 import static java.lang.Math.ceil;
@@ -13,14 +11,17 @@ import static java.lang.Math.log;
 /**
  * Bloom filter implementation.
  * <p>
- * Given the number of expected insertions and the desired false positive rate,
+ * Given the number of expected insertions and the desired false positive rate, or the number of bits per key,
  * the size is computed as -expectedInsertions * log(falsePositiveRate) / (log(2) * log(2))
  * and the number of hash functions is computed as ceil(-log(falsePositiveRate) / log(2)).
  * <p>
  * Two hashes are computed for each key using a single MurmurHash3 128 bit call.
  * We then use the formula (h1 + i * h2) % size to get the ith hash for the key.
+ * <p>
+ * The file starts with a format id, telling this filter apart from a {@link BlockedBloomFilter},
+ * followed by the size, the number of hash functions and the bits.
  */
-public class BloomFilter {
+public class BloomFilter implements KeyFilter {
 
     static final int DEFAULT_SIZE = 1 << 20;
 
@@ -58,6 +59,26 @@ public class BloomFilter {
         this.bits = new long[(int) ceil(size / 64.0)];
     }
 
+    /**
+     * Get the false positive rate reached with a number of bits per key, that is exp(-bitsPerKey * log(2)^2).
+     *
+     * @param bitsPerKey The number of bits per key.
+     * @return The false positive rate.
+     */
+    public static double falsePositiveRate(double bitsPerKey) {
+        return Math.exp(-bitsPerKey * log(2) * log(2));
+    }
+
+    /**
+     * Get the number of bits per key reaching a false positive rate, about 1.44 * log2(1 / p).
+     *
+     * @param falsePositiveRate The false positive rate.
+     * @return The number of bits per key.
+     */
+    public static double bitsPerKey(double falsePositiveRate) {
+        return -log(falsePositiveRate) / (log(2) * log(2));
+    }
+
     /**
      * Create a new Bloom filter from the given parameters.
      *
@@ -72,27 +93,32 @@ public class BloomFilter {
     }
 
     /**
-     * Read a Bloom filter from the given file.
+     * Read a Bloom filter from the given file, either a standard or a blocked one.
      *
      * @param filename The file to read from.
      * @return The Bloom filter.
      */
     public static BloomFilter readFromFile(String filename) {
-        ExtendedInputStream is = new ExtendedInputStream(filename);
-        try {
-            int size = is.readVByteInt();
-            int hashCount = is.readVByteInt();
-            int bitsLength = is.readVByteInt();
-            long[] bits = new long[bitsLength];
-
-            for (int i = 0; i < bitsLength; i++)
-                bits[i] = is.readLong();
-
-            is.close();
-            return new BloomFilter(size, hashCount, bits);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        if (KeyFilter.readFromFile(filename) instanceof BloomFilter filter)
+            return filter;
+
+        throw new IllegalArgumentException("Not a bloom filter: " + filename);
+    }
+
+    /**
+     * Read the body of a Bloom filter, after its format id.
+     */
+    static BloomFilter read(ExtendedInputStream is, int format) {
+        int size = is.readVByteInt();
+        int hashCount = is.readVByteInt();
+        int bitsLength = is.readVByteInt();
+        long[] bits = new long[bitsLength];
+
+        for (int i = 0; i < bitsLength; i++)
+            bits[i] = is.readLong();
+
+        return format == FORMAT_BLOCKED ? new BlockedBloomFilter(size, hashCount, bits)
+                                        : new BloomFilter(size, hashCount, bits);
     }
 
     /**
@@ -101,9 +127,19 @@ public class BloomFilter {
      * @param key The key to add.
      */
     public void add(byte[] key) {
-        LongLongPair hash = getHash(key);
-        long h1 = hash.leftLong(), h2 = hash.rightLong();
+        long[] hash = hash(key);
+        addHash(hash[0], hash[1]);
+    }
 
+    /**
+     * Add a key to the Bloom filter from its hashes, as computed by {@link #hash(byte[])}.
+     * <p>
+     * Hashes can be collected first, and the filter sized once the number of keys is known.
+     *
+     * @param h1 The first hash of the key.
+     * @param h2 The second hash of the key.
+     */
+    public void addHash(long h1, long h2) {
         for (int i = 0; i < hashCount; i++) {
             int bit = (int) Math.abs((h1 + i * h2) % size);
             bits[bit / 64] |= 1L << (bit % 64);
@@ -116,10 +152,13 @@ public class BloomFilter {
      * @param key The key to check.
      * @return True if the Bloom filter might contain the key, false otherwise.
      */
+    @Override
     public boolean mightContain(byte[] key) {
-        LongLongPair hash = getHash(key);
-        long h1 = hash.leftLong(), h2 = hash.rightLong();
+        long[] hash = hash(key);
+        return mightContainHash(hash[0], hash[1]);
+    }
 
+    boolean mightContainHash(long h1, long h2) {
         for (int i = 0; i < hashCount; i++) {
             int bit = (int) Math.abs((h1 + i * h2) % size);
             if ((bits[bit / 64] & (1L << (bit % 64))) == 0)
@@ -129,9 +168,24 @@ public class BloomFilter {
         return true;
     }
 
-    private LongLongMutablePair getHash(byte[] key) {
-        long[] hashes = MurmurHash3.hash128x64(key, 0, key.length, 0);
-        return LongLongMutablePair.of(hashes[0], hashes[1]);
+    /**
+     * Get the size of the Bloom filter.
+     *
+     * @return The size in bits.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compute the two hashes of a key.
+     *
+     * @param key The key to hash.
+     * @return The two hashes.
+     */
+    public static long[] hash(byte[] key) {
+        return MurmurHash3.hash128x64(key, 0, key.length, 0);
     }
 
     /**
@@ -139,9 +193,11 @@ public class BloomFilter {
      *
      * @param filename The file to write to.
      */
+    @Override
     public void writeToFile(String filename) {
         ExtendedOutputStream os = new ExtendedOutputStream(filename);
 
+        os.writeVByteInt(format());
         os.writeVByteInt(size);
         os.writeVByteInt(hashCount);
 
@@ -150,7 +206,12 @@ public class BloomFilter {
         for (var b : bits)
             os.writeLong(b);
 
+        os.sync();
         os.close();
     }
 
+    int format() {
+        return FORMAT_STANDARD;
+    }
+
 }
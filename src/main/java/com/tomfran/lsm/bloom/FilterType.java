@@ -0,0 +1,82 @@
+package com.tomfran.lsm.bloom;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Type of the key filter built for a new SSTable.
+ * <p>
+ * Filters are built once all the key hashes are known, with a budget of bits per key. Each type needs
+ * a different budget for the same false positive rate, given by {@link #bitsPerKey(double)}.
+ * <ul>
+ *     <li>BLOOM: standard Bloom filter, probes spread over the whole filter;</li>
+ *     <li>BLOCKED_BLOOM: Bloom filter probing a single cache line per key;</li>
+ *     <li>XOR: static xor filter, about a third smaller than a Bloom filter for the same false positive rate.</li>
+ * </ul>
+ */
+public enum FilterType {
+
+    BLOOM {
+        @Override
+        public KeyFilter build(LongArrayList hashes, double bitsPerKey) {
+            return fill(new BloomFilter(hashes.size() / 2, BloomFilter.falsePositiveRate(bitsPerKey)), hashes);
+        }
+
+        @Override
+        public double bitsPerKey(double falsePositiveRate) {
+            return BloomFilter.bitsPerKey(falsePositiveRate);
+        }
+    },
+
+    BLOCKED_BLOOM {
+        @Override
+        public KeyFilter build(LongArrayList hashes, double bitsPerKey) {
+            return fill(new BlockedBloomFilter(hashes.size() / 2, BloomFilter.falsePositiveRate(bitsPerKey)), hashes);
+        }
+
+        @Override
+        public double bitsPerKey(double falsePositiveRate) {
+            return BlockedBloomFilter.bitsPerKey(falsePositiveRate);
+        }
+    },
+
+    XOR {
+        @Override
+        public KeyFilter build(LongArrayList hashes, double bitsPerKey) {
+            long[] keys = new long[hashes.size() / 2];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = hashes.getLong(2 * i);
+
+            return XorFilter.build(keys, XorFilter.fingerprintBits(bitsPerKey));
+        }
+
+        @Override
+        public double bitsPerKey(double falsePositiveRate) {
+            return XorFilter.bitsPerKey(falsePositiveRate);
+        }
+    };
+
+    /**
+     * Build a filter over the given keys.
+     *
+     * @param hashes     The two hashes of each key, as computed by {@link BloomFilter#hash(byte[])}, one after the other.
+     * @param bitsPerKey The number of bits per key.
+     * @return The filter.
+     */
+    public abstract KeyFilter build(LongArrayList hashes, double bitsPerKey);
+
+    /**
+     * Get the number of bits per key this filter type needs to reach a false positive rate.
+     *
+     * @param falsePositiveRate The false positive rate.
+     * @return The number of bits per key.
+     */
+    public abstract double bitsPerKey(double falsePositiveRate);
+
+    private static BloomFilter fill(BloomFilter filter, LongArrayList hashes) {
+        for (int i = 0; i < hashes.size(); i += 2)
+            filter.addHash(hashes.getLong(i), hashes.getLong(i + 1));
+
+        return filter;
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.tomfran.lsm.bloom;
+
+import com.tomfran.lsm.io.ExtendedInputStream;
+
+/**
+ * Approximate membership filter over the keys of an SSTable.
+ * <p>
+ * A filter never rejects a key it was built with, and accepts other keys with a small false positive rate.
+ * Filters are written to their own file, starting with a format id:
+ * <ul>
+ *     <li>1: standard Bloom filter, see {@link BloomFilter};</li>
+ *     <li>2: blocked Bloom filter, see {@link BlockedBloomFilter};</li>
+ *     <li>3: xor filter, see {@link XorFilter}.</li>
+ * </ul>
+ */
+public interface KeyFilter {
+
+    int FORMAT_STANDARD = 1;
+    int FORMAT_BLOCKED = 2;
+    int FORMAT_XOR = 3;
+
+    /**
+     * Read a filter from the given file, its type is given by the format id.
+     *
+     * @param filename The file to read from.
+     * @return The filter.
+     */
+    static KeyFilter readFromFile(String filename) {
+        ExtendedInputStream is = new ExtendedInputStream(filename);
+        try {
+            int format = is.readVByteInt();
+            KeyFilter filter = switch (format) {
+                case FORMAT_STANDARD, FORMAT_BLOCKED -> BloomFilter.read(is, format);
+                case FORMAT_XOR -> XorFilter.read(is);
+                default -> throw new IllegalArgumentException("Unknown filter format " + format);
+            };
+
+            is.close();
+            return filter;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Check if the filter might contain the given key.
+     *
+     * @param key The key to check.
+     * @return True if the filter might contain the key, false otherwise.
+     */
+    boolean mightContain(byte[] key);
+
+    /**
+     * Get the size of the filter.
+     *
+     * @return The size in bits.
+     */
+    int size();
+
+    /**
+     * Write the filter to the given file.
+     *
+     * @param filename The file to write to.
+     */
+    void writeToFile(String filename);
+
+}
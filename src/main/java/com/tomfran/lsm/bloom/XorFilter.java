@@ -0,0 +1,258 @@
+package com.tomfran.lsm.bloom;
+
+import com.tomfran.lsm.io.ExtendedInputStream;
+import com.tomfran.lsm.io.ExtendedOutputStream;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+/**
+ * Xor filter, a static filter smaller than a Bloom filter for the same false positive rate.
+ * <p>
+ * The filter is an array of 1.23 * n + 32 fingerprints of f bits, split in three blocks. Each key is mapped
+ * to one slot per block, and the filter is built so that the xor of its three slots equals the key fingerprint.
+ * A lookup reads three slots and compares, the false positive rate is 2^-f, hence about 1.23 * f bits per key
+ * are needed, against 1.44 * f for a Bloom filter.
+ * <p>
+ * The filter is built at once from all the key hashes, by peeling keys owning a slot no other key maps to,
+ * and assigning the slots in the reverse order. When the peeling gets stuck the hashes are remixed
+ * with another seed, which happens rarely.
+ * <p>
+ * The file holds the format id, the fingerprint size, the block length, the seed and the packed fingerprints.
+ *
+ * @see <a href="https://arxiv.org/abs/1912.08258">Xor Filters: Faster and Smaller Than Bloom and Cuckoo Filters</a>
+ */
+public class XorFilter implements KeyFilter {
+
+    static final double SLOTS_PER_KEY = 1.23;
+
+    final int fingerprintBits;
+    final int blockLength;
+    final long seed;
+    final long[] fingerprints;
+
+    /**
+     * Create a new xor filter from the given parameters.
+     *
+     * @param fingerprintBits The size of fingerprints, from 1 to 32 bits.
+     * @param blockLength     The number of slots in each of the three blocks.
+     * @param seed            The seed mixed with the key hashes.
+     * @param fingerprints    The packed fingerprints.
+     */
+    public XorFilter(int fingerprintBits, int blockLength, long seed, long[] fingerprints) {
+        this.fingerprintBits = fingerprintBits;
+        this.blockLength = blockLength;
+        this.seed = seed;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Build an xor filter over the given key hashes.
+     *
+     * @param hashes          The key hashes, as computed by {@link BloomFilter#hash(byte[])}, only the first one is used.
+     * @param fingerprintBits The size of fingerprints, from 1 to 32 bits.
+     * @return The filter.
+     */
+    public static XorFilter build(long[] hashes, int fingerprintBits) {
+        if (fingerprintBits < 1 || fingerprintBits > 32)
+            throw new IllegalArgumentException("Fingerprint size must be between 1 and 32 bits");
+
+        // equal hashes would never be peeled
+        long[] keys = hashes.clone();
+        LongArrays.parallelQuickSort(keys);
+        int n = 0;
+        for (int i = 0; i < keys.length; i++)
+            if (i == 0 || keys[i] != keys[n - 1])
+                keys[n++] = keys[i];
+
+        int blockLength = (int) Math.ceil((32 + 1.23 * n) / 3);
+        int capacity = blockLength * 3;
+
+        long[] stackKeys = new long[n];
+        int[] stackSlots = new int[n];
+        long seed = 0;
+
+        while (true) {
+            seed++;
+            int[] counts = new int[capacity];
+            long[] xors = new long[capacity];
+
+            for (int i = 0; i < n; i++) {
+                long h = mix(keys[i], seed);
+                for (int b = 0; b < 3; b++) {
+                    int slot = slot(h, b, blockLength);
+                    counts[slot]++;
+                    xors[slot] ^= h;
+                }
+            }
+
+            // peel slots holding a single key, each peeled key frees the other two slots it maps to
+            IntArrayList queue = new IntArrayList();
+            for (int slot = 0; slot < capacity; slot++)
+                if (counts[slot] == 1)
+                    queue.add(slot);
+
+            int size = 0;
+            while (!queue.isEmpty()) {
+                int slot = queue.popInt();
+                if (counts[slot] != 1)
+                    continue;
+
+                long h = xors[slot];
+                stackKeys[size] = h;
+                stackSlots[size++] = slot;
+
+                for (int b = 0; b < 3; b++) {
+                    int other = slot(h, b, blockLength);
+                    counts[other]--;
+                    xors[other] ^= h;
+                    if (counts[other] == 1)
+                        queue.add(other);
+                }
+            }
+
+            if (size == n)
+                break;
+        }
+
+        XorFilter filter = new XorFilter(fingerprintBits, blockLength, seed,
+                                         new long[(int) (((long) capacity * fingerprintBits + 63) / 64) + 1]);
+
+        // in the reverse order, the slot of each key is the last one of its three to be assigned
+        for (int i = n - 1; i >= 0; i--) {
+            long h = stackKeys[i];
+            int value = fingerprint(h, fingerprintBits);
+            for (int b = 0; b < 3; b++)
+                value ^= filter.get(slot(h, b, blockLength));
+
+            filter.set(stackSlots[i], value);
+        }
+
+        return filter;
+    }
+
+    /**
+     * Get the number of fingerprint bits reaching the best false positive rate within a number of bits per key.
+     *
+     * @param bitsPerKey The number of bits per key.
+     * @return The fingerprint size.
+     */
+    public static int fingerprintBits(double bitsPerKey) {
+        // the tolerance keeps 1.23 * f from rounding down to f - 1
+        return Math.max(1, Math.min(32, (int) (bitsPerKey / SLOTS_PER_KEY + 1e-9)));
+    }
+
+    /**
+     * Get the number of bits per key reaching a false positive rate, 1.23 * ceil(log2(1 / p)).
+     *
+     * @param falsePositiveRate The false positive rate.
+     * @return The number of bits per key.
+     */
+    public static double bitsPerKey(double falsePositiveRate) {
+        return SLOTS_PER_KEY * Math.ceil(-Math.log(falsePositiveRate) / Math.log(2));
+    }
+
+    /**
+     * Read the body of an xor filter, after its format id.
+     */
+    static XorFilter read(ExtendedInputStream is) {
+        int fingerprintBits = is.readVByteInt();
+        int blockLength = is.readVByteInt();
+        long seed = is.readLong();
+        long[] fingerprints = new long[is.readVByteInt()];
+
+        for (int i = 0; i < fingerprints.length; i++)
+            fingerprints[i] = is.readLong();
+
+        return new XorFilter(fingerprintBits, blockLength, seed, fingerprints);
+    }
+
+    @Override
+    public boolean mightContain(byte[] key) {
+        return mightContainHash(BloomFilter.hash(key)[0]);
+    }
+
+    boolean mightContainHash(long hash) {
+        long h = mix(hash, seed);
+        int value = fingerprint(h, fingerprintBits);
+        for (int b = 0; b < 3; b++)
+            value ^= get(slot(h, b, blockLength));
+
+        return value == 0;
+    }
+
+    @Override
+    public int size() {
+        return blockLength * 3 * fingerprintBits;
+    }
+
+    @Override
+    public void writeToFile(String filename) {
+        ExtendedOutputStream os = new ExtendedOutputStream(filename);
+
+        os.writeVByteInt(FORMAT_XOR);
+        os.writeVByteInt(fingerprintBits);
+        os.writeVByteInt(blockLength);
+        os.writeLong(seed);
+
+        os.writeVByteInt(fingerprints.length);
+        for (var f : fingerprints)
+            os.writeLong(f);
+
+        os.sync();
+        os.close();
+    }
+
+    /**
+     * Read the fingerprint of a slot, possibly spanning two longs.
+     */
+    private int get(int slot) {
+        long bit = (long) slot * fingerprintBits;
+        int word = (int) (bit >>> 6), offset = (int) (bit & 63);
+
+        long value = fingerprints[word] >>> offset;
+        if (offset + fingerprintBits > 64)
+            value |= fingerprints[word + 1] << (64 - offset);
+
+        return (int) (value & mask(fingerprintBits));
+    }
+
+    /**
+     * Write the fingerprint of a slot, slots are written once, while they are still zero.
+     */
+    private void set(int slot, int value) {
+        long bit = (long) slot * fingerprintBits;
+        int word = (int) (bit >>> 6), offset = (int) (bit & 63);
+        long v = value & mask(fingerprintBits);
+
+        fingerprints[word] |= v << offset;
+        if (offset + fingerprintBits > 64)
+            fingerprints[word + 1] |= v >>> (64 - offset);
+    }
+
+    private static long mask(int bits) {
+        return (1L << bits) - 1;
+    }
+
+    private static int fingerprint(long h, int bits) {
+        return (int) ((h ^ (h >>> 32)) & mask(bits));
+    }
+
+    /**
+     * Map a hash to its slot in a block, scaling a rotation of it to the block length.
+     */
+    private static int slot(long h, int block, int blockLength) {
+        long r = Long.rotateLeft(h, 21 * block);
+        return (int) (((r & 0xFFFFFFFFL) * blockLength) >>> 32) + block * blockLength;
+    }
+
+    /**
+     * Remix a hash with a seed, with the MurmurHash3 finalizer.
+     */
+    private static long mix(long hash, long seed) {
+        long h = hash + seed * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+}
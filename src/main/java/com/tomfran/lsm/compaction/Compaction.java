@@ -0,0 +1,21 @@
+package com.tomfran.lsm.compaction;
+
+import com.tomfran.lsm.sstable.SSTable;
+
+import java.util.List;
+
+/**
+ * A compaction chosen by a CompactionStrategy.
+ * <p>
+ * The input tables are merged in a sorted run and replaced by the result in the output level.
+ * Inputs can come from different levels, they are ordered from the newest to the oldest,
+ * so that the most recent version of each key wins the merge.
+ *
+ * @param outputLevel      The level receiving the merged tables.
+ * @param inputs           The tables to merge, from the newest to the oldest.
+ * @param tableMaxByteSize The maximum size of each written table.
+ * @param trivialMove      Whether the single input can be moved to the output level without rewriting it.
+ */
+public record Compaction(int outputLevel, List<SSTable> inputs, long tableMaxByteSize, boolean trivialMove) {
+
+}
@@ -0,0 +1,39 @@
+package com.tomfran.lsm.compaction;
+
+import com.tomfran.lsm.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.List;
+
+/**
+ * Policy deciding what to compact and where the result goes.
+ * <p>
+ * The strategy shapes the tree levels, hence the trade-off between read, write and space amplification:
+ * leveled compaction keeps few overlapping tables, at the cost of rewriting data more often,
+ * tiered compaction rewrites data less often, at the cost of more tables to search.
+ * <p>
+ * Strategies are called from the single compaction thread, they can keep state between calls.
+ */
+public interface CompactionStrategy {
+
+    /**
+     * Pick the next compaction.
+     *
+     * @param levels The current levels, tables of each level are ordered as described by isSorted.
+     * @return The compaction to run, or null if no level needs it.
+     */
+    Compaction pick(List<ObjectArrayList<SSTable>> levels);
+
+    /**
+     * Tell how the tables of a level are organized.
+     * <p>
+     * A sorted level holds tables with disjoint key ranges, ordered by key, so a lookup only searches
+     * the table whose range contains the key. Otherwise, tables can overlap and are ordered from
+     * the newest to the oldest.
+     *
+     * @param level The level index.
+     * @return True if the level is sorted.
+     */
+    boolean isSorted(int level);
+
+}
@@ -0,0 +1,40 @@
+package com.tomfran.lsm.compaction;
+
+/**
+ * Tiered and leveled hybrid compaction, in the spirit of universal compaction.
+ * <p>
+ * The upper levels are size-tiered: recent data, which is most likely to be overwritten,
+ * is merged as a whole a few times only. Once it reaches the last tier, it is merged into sorted levels
+ * as in leveled compaction, which keep the bulk of the data with little overlap.
+ * Write amplification is lower than leveled compaction, and lookups search
+ * a bounded number of tiers before the sorted levels.
+ */
+public class HybridCompactionStrategy extends LeveledCompactionStrategy {
+
+    public static final int DEFAULT_TIERED_LEVELS = 2;
+
+    /**
+     * Create a hybrid strategy with a default number of tiers.
+     *
+     * @param tierSize         The maximum number of tables in a tier.
+     * @param tableMaxByteSize The maximum size of tables written to the first sorted level.
+     */
+    public HybridCompactionStrategy(int tierSize, long tableMaxByteSize) {
+        this(tierSize, tableMaxByteSize, DEFAULT_TIERED_LEVELS);
+    }
+
+    /**
+     * Create a hybrid strategy.
+     *
+     * @param tierSize         The maximum number of tables in a tier.
+     * @param tableMaxByteSize The maximum size of tables written to the first sorted level.
+     * @param tieredLevels     The number of tiered levels, at least one, level zero always being a tier.
+     */
+    public HybridCompactionStrategy(int tierSize, long tableMaxByteSize, int tieredLevels) {
+        super(tierSize, tableMaxByteSize, DEFAULT_LEVEL_INCR_FACTOR, tieredLevels);
+
+        if (tieredLevels < 1)
+            throw new IllegalArgumentException("At least one tiered level is required");
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.tomfran.lsm.compaction;
+
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.List;
+
+/**
+ * Leveled compaction, read and space optimized.
+ * <p>
+ * Level zero tables overlap each other, when the level exceeds its threshold they are merged all together
+ * with the overlapping tables of level one. From level one down, tables hold disjoint key ranges,
+ * when a level exceeds its threshold a single table is picked, rotating over the key space, and merged
+ * only with the next level tables overlapping its range. A table overlapping nothing is moved down.
+ * <p>
+ * Level thresholds and table sizes grow by a constant factor on each level.
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+
+    public static final double DEFAULT_LEVEL_INCR_FACTOR = 1.75;
+
+    final int levelZeroMaxSize;
+    final long tableMaxByteSize;
+    final double levelIncrFactor;
+    // levels above this one are tiers of overlapping tables
+    final int firstSortedLevel;
+
+    // greatest key of the last compaction of each level, the next one starts after it
+    private final ObjectArrayList<byte[]> compactionPointers = new ObjectArrayList<>();
+
+    /**
+     * Create a leveled strategy.
+     *
+     * @param levelZeroMaxSize The maximum number of tables in level zero.
+     * @param tableMaxByteSize The maximum size of tables written to level one.
+     */
+    public LeveledCompactionStrategy(int levelZeroMaxSize, long tableMaxByteSize) {
+        this(levelZeroMaxSize, tableMaxByteSize, DEFAULT_LEVEL_INCR_FACTOR);
+    }
+
+    /**
+     * Create a leveled strategy.
+     *
+     * @param levelZeroMaxSize The maximum number of tables in level zero.
+     * @param tableMaxByteSize The maximum size of tables written to level one.
+     * @param levelIncrFactor  The growth factor of level thresholds and table sizes.
+     */
+    public LeveledCompactionStrategy(int levelZeroMaxSize, long tableMaxByteSize, double levelIncrFactor) {
+        this(levelZeroMaxSize, tableMaxByteSize, levelIncrFactor, 1);
+    }
+
+    LeveledCompactionStrategy(int levelZeroMaxSize, long tableMaxByteSize, double levelIncrFactor, int firstSortedLevel) {
+        this.levelZeroMaxSize = levelZeroMaxSize;
+        this.tableMaxByteSize = tableMaxByteSize;
+        this.levelIncrFactor = levelIncrFactor;
+        this.firstSortedLevel = firstSortedLevel;
+    }
+
+    @Override
+    public Compaction pick(List<ObjectArrayList<SSTable>> levels) {
+        int maxLevelSize = levelZeroMaxSize;
+        long maxTableSize = tableMaxByteSize;
+
+        for (int i = 0; i < levels.size(); i++) {
+            ObjectArrayList<SSTable> level = levels.get(i);
+            ObjectArrayList<SSTable> nextLevel = i + 1 < levels.size() ? levels.get(i + 1) : new ObjectArrayList<>();
+
+            if (i + 1 < firstSortedLevel) {
+                // tier, merged as a whole in a new table of the next tier
+                if (level.size() > levelZeroMaxSize)
+                    return new Compaction(i + 1, new ObjectArrayList<>(level), Long.MAX_VALUE, false);
+
+                continue;
+            }
+
+            if (level.size() > maxLevelSize)
+                return isSorted(i) ? compactTable(nextLevel, i, pickTable(level, i), maxTableSize)
+                                   : compactLevel(level, nextLevel, i, maxTableSize);
+
+            maxLevelSize = (int) (maxLevelSize * levelIncrFactor);
+            maxTableSize = (long) (maxTableSize * levelIncrFactor);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isSorted(int level) {
+        return level >= firstSortedLevel;
+    }
+
+    /**
+     * Merge a whole level of overlapping tables with the overlapping tables of the next, sorted, level.
+     */
+    private Compaction compactLevel(ObjectArrayList<SSTable> level, ObjectArrayList<SSTable> nextLevel,
+                                    int i, long maxTableSize) {
+        KeyComparator comparator = level.get(0).comparator();
+        byte[] minKey = level.get(0).minKey(), maxKey = level.get(0).maxKey();
+        for (SSTable table : level) {
+            if (comparator.compare(table.minKey(), minKey) < 0)
+                minKey = table.minKey();
+            if (comparator.compare(table.maxKey(), maxKey) > 0)
+                maxKey = table.maxKey();
+        }
+
+        ObjectArrayList<SSTable> inputs = new ObjectArrayList<>(level);
+        inputs.addAll(overlapping(nextLevel, minKey, maxKey));
+
+        return new Compaction(i + 1, inputs, maxTableSize, false);
+    }
+
+    /**
+     * Merge a single table of a sorted level with the overlapping tables of the next level.
+     */
+    private Compaction compactTable(ObjectArrayList<SSTable> nextLevel, int i, SSTable table, long maxTableSize) {
+        ObjectArrayList<SSTable> inputs = ObjectArrayList.of(table);
+        inputs.addAll(overlapping(nextLevel, table.minKey(), table.maxKey()));
+
+        while (compactionPointers.size() <= i)
+            compactionPointers.add(null);
+        compactionPointers.set(i, table.maxKey());
+
+        return new Compaction(i + 1, inputs, maxTableSize, inputs.size() == 1);
+    }
+
+    /**
+     * Pick the table to compact in a level, the first one after the range compacted last time.
+     */
+    private SSTable pickTable(ObjectArrayList<SSTable> level, int i) {
+        byte[] pointer = i < compactionPointers.size() ? compactionPointers.get(i) : null;
+
+        if (pointer != null)
+            for (SSTable table : level)
+                if (table.comparator().compare(table.minKey(), pointer) > 0)
+                    return table;
+
+        return level.get(0);
+    }
+
+    private static ObjectArrayList<SSTable> overlapping(ObjectArrayList<SSTable> level, byte[] minKey, byte[] maxKey) {
+        ObjectArrayList<SSTable> result = new ObjectArrayList<>();
+        for (SSTable table : level) {
+            KeyComparator comparator = table.comparator();
+            if (comparator.compare(table.maxKey(), minKey) >= 0 && comparator.compare(table.minKey(), maxKey) <= 0)
+                result.add(table);
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.tomfran.lsm.compaction;
+
+import com.tomfran.lsm.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.List;
+
+/**
+ * Size-tiered compaction, write optimized.
+ * <p>
+ * Each level is a tier of overlapping tables with similar sizes. When a tier collects enough tables,
+ * they are merged in a single table, roughly as big as all of them together, which becomes the newest
+ * table of the next tier. Data is rewritten once per tier, hence write amplification is low,
+ * but lookups may have to search every table of every tier, and overwritten keys
+ * take space until their tier is merged.
+ */
+public class SizeTieredCompactionStrategy implements CompactionStrategy {
+
+    public static final int DEFAULT_TIER_SIZE = 4;
+
+    final int tierSize;
+
+    /**
+     * Create a size-tiered strategy with a default tier size.
+     */
+    public SizeTieredCompactionStrategy() {
+        this(DEFAULT_TIER_SIZE);
+    }
+
+    /**
+     * Create a size-tiered strategy.
+     *
+     * @param tierSize The number of tables that triggers the merge of a tier.
+     */
+    public SizeTieredCompactionStrategy(int tierSize) {
+        this.tierSize = tierSize;
+    }
+
+    @Override
+    public Compaction pick(List<ObjectArrayList<SSTable>> levels) {
+        for (int i = 0; i < levels.size(); i++) {
+            ObjectArrayList<SSTable> tier = levels.get(i);
+
+            if (tier.size() >= tierSize)
+                return new Compaction(i + 1, new ObjectArrayList<>(tier), Long.MAX_VALUE, false);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isSorted(int level) {
+        return false;
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.tomfran.lsm.comparator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Order of the keys of a tree.
+ * <p>
+ * Memtables, tables and iterators of a tree all use its comparator. Tables record the comparator name
+ * in their index, and refuse to be opened with a different one, as their content would look unsorted.
+ * A custom comparator must only consider equal the byte arrays with the same content.
+ */
+public interface KeyComparator extends Comparator<byte[]> {
+
+    /**
+     * Unsigned lexicographic order, the default one, keys sharing a prefix are contiguous.
+     */
+    KeyComparator LEXICOGRAPHIC = new KeyComparator() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return ByteArrayComparator.compare(a, b);
+        }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+            return ByteArrayComparator.compare(buffer, offset, length, key);
+        }
+
+        @Override
+        public String name() {
+            return "lexicographic";
+        }
+
+        @Override
+        public byte[] prefixEnd(byte[] prefix) {
+            // drop trailing 0xFF bytes and increment the last one left
+            for (int i = prefix.length - 1; i >= 0; i--) {
+                if (prefix[i] != (byte) 0xFF) {
+                    byte[] end = Arrays.copyOf(prefix, i + 1);
+                    end[i]++;
+                    return end;
+                }
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Order by length first, then by signed bytes.
+     */
+    KeyComparator LENGTH_FIRST = new KeyComparator() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return ByteArrayComparator.compareLengthFirst(a, b);
+        }
+
+        @Override
+        public String name() {
+            return "length-first";
+        }
+    };
+
+    /**
+     * Compare a key stored in a buffer with a key array, as compare(byte[], byte[]) would.
+     * <p>
+     * The default implementation copies the stored key, comparators can avoid the copy.
+     *
+     * @param buffer The buffer holding the first key.
+     * @param offset The position of the first key in the buffer.
+     * @param length The length of the first key.
+     * @param key    The second key.
+     * @return A negative integer, zero, or a positive integer as the first key is smaller, equal or greater.
+     */
+    default int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+        byte[] stored = new byte[length];
+        buffer.get(offset, stored);
+        return compare(stored, key);
+    }
+
+    /**
+     * Get the comparator name, recorded by tables.
+     *
+     * @return The name.
+     */
+    String name();
+
+    /**
+     * Get the smallest key greater than all the keys starting with a prefix.
+     *
+     * @param prefix The prefix.
+     * @return The exclusive end of the prefix range, or null if its keys are not contiguous or reach the greatest key.
+     */
+    default byte[] prefixEnd(byte[] prefix) {
+        return null;
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.tomfran.lsm.io;
+
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.util.Arrays;
+
+/**
+ * In-memory counterpart of ExtendedOutputStream, it encodes values into a
+ * growable byte array using the same representation as the stream.
+ * <p>
+ * It is used to build self-contained records, for instance write-ahead log entries,
+ * that are later written to disk with a single call.
+ */
+public class ByteArrayEncoder {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private byte[] buffer;
+    private int size;
+
+    /**
+     * Initialize an encoder with a default capacity.
+     */
+    public ByteArrayEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initialize an encoder with the given initial capacity.
+     *
+     * @param capacity the initial capacity in bytes.
+     */
+    public ByteArrayEncoder(int capacity) {
+        buffer = new byte[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b byte to write, only the lowest 8 bits are considered.
+     * @return number of written bytes.
+     */
+    public int writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+        return 1;
+    }
+
+    /**
+     * Write a byte array.
+     *
+     * @param bytes array to write.
+     * @return number of written bytes.
+     */
+    public int write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return bytes.length;
+    }
+
+    /**
+     * Write a slice of a byte array.
+     *
+     * @param bytes  array to write.
+     * @param offset index of the first byte to write.
+     * @param length number of bytes to write.
+     * @return number of written bytes.
+     */
+    public int write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return length;
+    }
+
+    /**
+     * Write a variable-byte int, see writeVByteLong().
+     *
+     * @param n integer to write.
+     * @return number of written bytes.
+     */
+    public int writeVByteInt(int n) {
+        return writeVByteLong(n);
+    }
+
+    /**
+     * Write a variable-byte long, using the same representation as ExtendedOutputStream.
+     *
+     * @param n long to write.
+     * @return number of written bytes.
+     */
+    public int writeVByteLong(long n) {
+        n++;
+
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be greater than 0");
+        }
+
+        ensureCapacity(10);
+        int start = size;
+        while (n > 0) {
+            buffer[size++] = (byte) (n & 0x7F);
+            n >>>= 7;
+        }
+        buffer[size - 1] |= (byte) 0x80;
+
+        return size - start;
+    }
+
+    /**
+     * Write 32 bits in big-endian order.
+     *
+     * @param n int to write.
+     * @return number of written bytes.
+     */
+    public int writeInt(int n) {
+        ensureCapacity(4);
+        for (int i = 3; i >= 0; i--)
+            buffer[size++] = (byte) (n >>> (i * 8));
+        return 4;
+    }
+
+    /**
+     * Write 64 bits in big-endian order.
+     *
+     * @param n long to write.
+     * @return number of written bytes.
+     */
+    public int writeLong(long n) {
+        ensureCapacity(8);
+        for (int i = 7; i >= 0; i--)
+            buffer[size++] = (byte) (n >>> (i * 8));
+        return 8;
+    }
+
+    /**
+     * Write a ByteArrayPair, encoded as type, sequence number, key length, value length, key, value.
+     *
+     * @param pair item to write.
+     * @return number of written bytes.
+     */
+    public int writeByteArrayPair(ByteArrayPair pair) {
+        byte[] key = pair.key(), value = pair.value();
+        return writeByte(pair.type()) + writeVByteLong(pair.sequence()) +
+               writeVByteInt(key.length) + writeVByteInt(value.length) + write(key) + write(value);
+    }
+
+    /**
+     * Overwrite 32 bits at a given position, useful to fill headers once the payload is known.
+     *
+     * @param position the position to write at.
+     * @param n        int to write.
+     */
+    public void setInt(int position, int n) {
+        if (position < 0 || position + 4 > size)
+            throw new IndexOutOfBoundsException("Position " + position + " out of bounds for size " + size);
+
+        for (int i = 3; i >= 0; i--)
+            buffer[position++] = (byte) (n >>> (i * 8));
+    }
+
+    /**
+     * Get the number of written bytes.
+     *
+     * @return encoded size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the underlying buffer, only the first size() bytes are meaningful.
+     *
+     * @return the backing array.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * Get a copy of the encoded bytes.
+     *
+     * @return an array with the written bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Discard the written bytes, keeping the allocated buffer.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int n) {
+        if (size + n <= buffer.length)
+            return;
+
+        int newCapacity = Math.max(buffer.length * 2, size + n);
+        buffer = Arrays.copyOf(buffer, newCapacity);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.tomfran.lsm.io;
+
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory counterpart of ExtendedInputStream, it decodes values written by
+ * ExtendedOutputStream or ByteArrayEncoder from a ByteBuffer.
+ * <p>
+ * Reads start at the buffer position and advance it, the buffer limit marks the end of the data.
+ */
+public class ByteBufferDecoder {
+
+    protected ByteBuffer buffer;
+
+    /**
+     * Initialize a decoder on a buffer.
+     *
+     * @param buffer the buffer to read from.
+     */
+    public ByteBufferDecoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Initialize a decoder on a byte array.
+     *
+     * @param bytes the array to read from.
+     */
+    public ByteBufferDecoder(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Read a variable byte int, see readVByteLong()
+     *
+     * @return the next V-Byte int.
+     */
+    public int readVByteInt() {
+        return (int) readVByteLong();
+    }
+
+    /**
+     * Read a variable byte long, see ExtendedInputStream.readVByteLong()
+     *
+     * @return the next V-Byte long.
+     */
+    public long readVByteLong() {
+        long result = 0;
+        int b;
+        int shift = 0;
+        while (true) {
+            b = readByteInt();
+            result |= (((long) b & 0x7F) << shift);
+
+            if ((b & 0x80) == 0x80)
+                break;
+
+            shift += 7;
+        }
+        return result - 1;
+    }
+
+    /**
+     * Read a single byte as an int.
+     *
+     * @return the next 8-bits integer.
+     */
+    public int readByteInt() {
+        ensure(1);
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Read 4 bytes representing an int.
+     *
+     * @return the next int.
+     */
+    public int readInt() {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    /**
+     * Read 8 bytes representing a long.
+     *
+     * @return the next long.
+     */
+    public long readLong() {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    /**
+     * Read N bytes.
+     *
+     * @param n the wanted number of bytes.
+     * @return an array with the next N bytes.
+     */
+    public byte[] readNBytes(int n) {
+        ensure(n);
+        byte[] result = new byte[n];
+        buffer.get(result);
+        return result;
+    }
+
+    /**
+     * Read a ByteArrayPair, encoded as type, sequence number, key length, value length, key, value.
+     *
+     * @return the next item.
+     */
+    public ByteArrayPair readBytePair() {
+        int type = readByteInt();
+        long sequence = readVByteLong();
+        int keyLength = readVByteInt();
+        int valueLength = readVByteInt();
+
+        return ByteArrayPair.of(
+                type,
+                sequence,
+                readNBytes(keyLength),
+                readNBytes(valueLength)
+        );
+    }
+
+    /**
+     * Skip N bytes.
+     *
+     * @param n the number of bytes to skip.
+     */
+    public void skip(int n) {
+        ensure(n);
+        buffer.position(buffer.position() + n);
+    }
+
+    /**
+     * Check whether there are bytes left to read.
+     *
+     * @return true if the end of the data has not been reached.
+     */
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Make sure the next N bytes are available in the buffer.
+     * <p>
+     * Subclasses reading from a backing source can refill the buffer here.
+     *
+     * @param n the number of bytes needed.
+     */
+    protected void ensure(int n) {
+        if (buffer.remaining() < n)
+            throw new IndexOutOfBoundsException("Not enough bytes: wanted " + n + ", remaining " + buffer.remaining());
+    }
+
+}
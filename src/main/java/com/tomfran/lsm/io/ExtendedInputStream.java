@@ -113,16 +113,20 @@ public class ExtendedInputStream {
     /**
      * Read a ByteArrayPair from the stream.
      * <p>
-     * Each array is encoded as length, payload.
+     * Each pair is encoded as type, sequence number, key length, value length, key, value.
      *
      * @return the next item in the stream.
      */
     public ByteArrayPair readBytePair() {
         try {
+            int type = readByteInt();
+            long sequence = readVByteLong();
             int keyLength = readVByteInt();
             int valueLength = readVByteInt();
 
-            return new ByteArrayPair(
+            return ByteArrayPair.of(
+                    type,
+                    sequence,
                     readNBytes(keyLength),
                     readNBytes(valueLength)
             );
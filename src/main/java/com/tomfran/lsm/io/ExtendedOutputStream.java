@@ -11,8 +11,10 @@ import java.io.FileOutputStream;
  */
 public class ExtendedOutputStream {
 
-    private static final byte[] VBYTE_BUFFER = new byte[10];
+    // per stream, tables are written by concurrent flushes and compactions
+    private final byte[] vbyteBuffer = new byte[10];
     private final FastBufferedOutputStream fos;
+    private final FileOutputStream fileStream;
 
     /**
      * Initialize an output stream on a file.
@@ -21,7 +23,8 @@ public class ExtendedOutputStream {
      */
     public ExtendedOutputStream(String filename) {
         try {
-            fos = new FastBufferedOutputStream(new FileOutputStream(filename));
+            fileStream = new FileOutputStream(filename);
+            fos = new FastBufferedOutputStream(fileStream);
             fos.position(0);
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -76,22 +79,26 @@ public class ExtendedOutputStream {
     /**
      * Write a ByteArrayPair from the stream.
      * <p>
-     * Each array is encoded as length, payload.
+     * Each pair is encoded as type, sequence number, key length, value length, key, value.
      *
      * @param pair item to write.
      * @return number of written bytes.
      */
     public int writeByteArrayPair(ByteArrayPair pair) {
         byte[] key = pair.key(), value = pair.value();
+        byte[] sequenceBytes = longToVByte(pair.sequence());
         byte[] keyBytes = intToVByte(key.length), valueBytes = intToVByte(value.length);
 
-        byte[] result = new byte[keyBytes.length + valueBytes.length + key.length + value.length];
+        int header = 1 + sequenceBytes.length + keyBytes.length + valueBytes.length;
+        byte[] result = new byte[header + key.length + value.length];
 
-        System.arraycopy(keyBytes, 0, result, 0, keyBytes.length);
-        System.arraycopy(valueBytes, 0, result, keyBytes.length, valueBytes.length);
+        result[0] = pair.type();
+        System.arraycopy(sequenceBytes, 0, result, 1, sequenceBytes.length);
+        System.arraycopy(keyBytes, 0, result, 1 + sequenceBytes.length, keyBytes.length);
+        System.arraycopy(valueBytes, 0, result, 1 + sequenceBytes.length + keyBytes.length, valueBytes.length);
 
-        System.arraycopy(key, 0, result, keyBytes.length + valueBytes.length, key.length);
-        System.arraycopy(value, 0, result, keyBytes.length + valueBytes.length + key.length, value.length);
+        System.arraycopy(key, 0, result, header, key.length);
+        System.arraycopy(value, 0, result, header + key.length, value.length);
         return write(result);
     }
 
@@ -106,6 +113,18 @@ public class ExtendedOutputStream {
     }
 
 
+    /**
+     * Flush buffered bytes and force them to disk.
+     */
+    public void sync() {
+        try {
+            fos.flush();
+            fileStream.getFD().sync();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Close resources.
      */
@@ -126,13 +145,13 @@ public class ExtendedOutputStream {
 
         int i = 0;
         while (n > 0) {
-            VBYTE_BUFFER[i++] = (byte) (n & 0x7F);
+            vbyteBuffer[i++] = (byte) (n & 0x7F);
             n >>>= 7;
         }
 
-        VBYTE_BUFFER[i - 1] |= 0x80;
+        vbyteBuffer[i - 1] |= 0x80;
         byte[] res = new byte[i];
-        System.arraycopy(VBYTE_BUFFER, 0, res, 0, i);
+        System.arraycopy(vbyteBuffer, 0, res, 0, i);
         return res;
     }
 
@@ -0,0 +1,125 @@
+package com.tomfran.lsm.memtable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bump allocator over off-heap slabs.
+ * <p>
+ * Slabs are direct buffers, records are carved out of the current one by advancing its position with
+ * an atomic add, so concurrent writers only synchronize when a slab is full and a new one is allocated.
+ * Records bigger than a slab get a slab of their own.
+ * <p>
+ * Records are addressed by a long, the slab index in the high 32 bits and the offset in the low ones,
+ * and are aligned to 8 bytes, so that long fields can be updated atomically. Records are never freed
+ * one by one: the slabs are released as a unit once the arena is no longer referenced.
+ */
+class Arena {
+
+    static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    static final int ALIGNMENT = 8;
+
+    private final int slabSize;
+    // slabs by index, replaced by a bigger copy when full, written under the arena lock
+    private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+    private volatile Slab current;
+    private volatile long allocatedBytes;
+
+    /**
+     * Create an arena with the given slab size.
+     *
+     * @param slabSize The size in bytes of each slab.
+     */
+    Arena(int slabSize) {
+        this.slabSize = slabSize;
+        current = newSlab(0, slabSize);
+    }
+
+    /**
+     * Allocate a record.
+     *
+     * @param size The record size in bytes.
+     * @return The record address.
+     */
+    long allocate(int size) {
+        int aligned = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        while (true) {
+            Slab slab = current;
+            int offset = slab.position.getAndAdd(aligned);
+            // the position can overshoot the capacity, the slab is then full for every writer
+            if (offset <= slab.capacity - aligned)
+                return (long) slab.index << 32 | offset;
+
+            replaceFull(slab, aligned);
+        }
+    }
+
+    /**
+     * Get the slab holding a record.
+     *
+     * @param address The record address.
+     * @return The slab, records are read and written with absolute accesses at their offset.
+     */
+    ByteBuffer buffer(long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    /**
+     * Get the offset of a record in its slab.
+     *
+     * @param address The record address.
+     * @return The offset.
+     */
+    static int offset(long address) {
+        return (int) address;
+    }
+
+    /**
+     * Get the off-heap memory held by the arena.
+     *
+     * @return The total size of the slabs, in bytes.
+     */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private synchronized void replaceFull(Slab full, int size) {
+        // another writer already replaced it
+        if (current != full)
+            return;
+
+        current = newSlab(full.index + 1, Math.max(slabSize, size));
+    }
+
+    private synchronized Slab newSlab(int index, int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity + ALIGNMENT - 1)
+                                      .alignedSlice(ALIGNMENT)
+                                      .order(ByteOrder.nativeOrder());
+
+        // the slab is published before any address pointing into it
+        ByteBuffer[] array = slabs;
+        if (index == array.length)
+            array = Arrays.copyOf(array, array.length * 2);
+        array[index] = buffer;
+        slabs = array;
+
+        allocatedBytes += buffer.capacity();
+        return new Slab(index, buffer);
+    }
+
+    private static final class Slab {
+
+        final int index;
+        final int capacity;
+        final AtomicInteger position = new AtomicInteger();
+
+        Slab(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.capacity = buffer.capacity();
+        }
+
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.tomfran.lsm.memtable;
+
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.log;
+
+/**
+ * A lock-free skip list of ByteArrayPairs stored off-heap.
+ * <p>
+ * It follows the ConcurrentSkipList algorithm, but nodes are records of an {@link Arena} instead of objects,
+ * so a full memtable is a handful of slabs rather than millions of nodes, pairs and arrays for the
+ * garbage collector to trace. A node is laid out as:
+ * <pre>
+ * sequence (8B) | value address (8B) | key length (4B) | height (4B) | next_0 ... next_h-1 (8B each) | key | value
+ * </pre>
+ * Links are node addresses, zero standing for null as the sentinel is the first record of the arena,
+ * they are read and set with acquire and release semantics. The value record holds the value length,
+ * -1 for a tombstone, followed by its bytes, a replaced value gets a new record and the node points to it.
+ * <p>
+ * Keys and values are copied in on insertion, and copied out by lookups and iterators.
+ */
+public class ArenaSkipList implements MemtableList {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int SEQUENCE = 0;
+    private static final int VALUE = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int HEIGHT = 20;
+    private static final int NEXT = 24;
+
+    final Arena arena;
+    final long sentinel;
+    final int levels;
+    final AtomicInteger size;
+    final KeyComparator comparator;
+
+    /**
+     * Create a skip list with a default number of elements, 2 ^ 20.
+     */
+    public ArenaSkipList() {
+        this(ConcurrentSkipList.DEFAULT_ELEMENTS, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    /**
+     * Create a skip list with a specified number of elements and key order.
+     *
+     * @param numElements The number of elements to size the skip list for.
+     * @param comparator  The key comparator.
+     */
+    public ArenaSkipList(int numElements, KeyComparator comparator) {
+        this(numElements, comparator, Arena.DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Create a skip list with a specified number of elements, key order and slab size.
+     *
+     * @param numElements The number of elements to size the skip list for.
+     * @param comparator  The key comparator.
+     * @param slabSize    The size in bytes of the arena slabs.
+     */
+    public ArenaSkipList(int numElements, KeyComparator comparator, int slabSize) {
+        this.comparator = comparator;
+        levels = Math.max(1, (int) ceil(log(numElements) / log(2)));
+        arena = new Arena(slabSize);
+        sentinel = arena.allocate(NEXT + 8 * levels);
+        arena.buffer(sentinel).putInt(Arena.offset(sentinel) + HEIGHT, levels);
+        size = new AtomicInteger();
+    }
+
+    private long getNext(long node, int level) {
+        return (long) LONGS.getAcquire(arena.buffer(node), Arena.offset(node) + NEXT + 8 * level);
+    }
+
+    private void setNext(long node, int level, long value) {
+        LONGS.setRelease(arena.buffer(node), Arena.offset(node) + NEXT + 8 * level, value);
+    }
+
+    private boolean casNext(long node, int level, long expected, long value) {
+        return LONGS.compareAndSet(arena.buffer(node), Arena.offset(node) + NEXT + 8 * level, expected, value);
+    }
+
+    /**
+     * Add an item to the skip list, replacing the value of an existing version.
+     *
+     * @param item The item to add.
+     */
+    @Override
+    public void add(ByteArrayPair item) {
+        long[] preds = new long[levels];
+        long[] succs = new long[levels];
+
+        long node = 0;
+        int height = 0;
+        while (true) {
+            long found = findSplice(item.key(), item.sequence(), preds, succs);
+            if (found != 0) {
+                long value = arena.allocate(valueSize(item));
+                writeValue(value, item);
+                LONGS.setRelease(arena.buffer(found), Arena.offset(found) + VALUE, value);
+                return;
+            }
+
+            if (node == 0) {
+                height = randomLevel();
+                node = newNode(item, height);
+            }
+
+            // link the lowest level first, this makes the node visible
+            setNext(node, 0, succs[0]);
+            if (casNext(preds[0], 0, succs[0], node))
+                break;
+        }
+
+        size.incrementAndGet();
+
+        for (int i = 1; i < height; i++) {
+            while (true) {
+                setNext(node, i, succs[i]);
+                if (casNext(preds[i], i, succs[i], node))
+                    break;
+
+                // a concurrent insertion changed the neighbourhood, search again
+                findSplice(item.key(), item.sequence(), preds, succs);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the newest version of an item from the skip list.
+     *
+     * @param key The key of the item to retrieve.
+     * @return The item if found, null otherwise.
+     */
+    public byte[] get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieve the newest version of an item with a sequence number not greater than the given one.
+     *
+     * @param key      The key of the item to retrieve.
+     * @param sequence The greatest visible sequence number.
+     * @return The item if found, null otherwise.
+     */
+    @Override
+    public byte[] get(byte[] key, long sequence) {
+        long current = sentinel;
+        long next = 0;
+        for (int i = levels - 1; i >= 0; i--) {
+            next = getNext(current, i);
+            while (next != 0 && compare(next, key, sequence) < 0) {
+                current = next;
+                next = getNext(current, i);
+            }
+        }
+
+        if (next != 0 && compareKey(next, key) == 0)
+            return readValue(next);
+
+        return null;
+    }
+
+    /**
+     * Get the number of items in the skip list.
+     *
+     * @return Skip list size.
+     */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Get the off-heap memory held by the skip list.
+     *
+     * @return The size of the arena slabs, in bytes.
+     */
+    public long allocatedBytes() {
+        return arena.allocatedBytes();
+    }
+
+    /**
+     * Get an iterator over the items in the skip list at the lowest level.
+     *
+     * @return An iterator over the items in the skip list.
+     */
+    @Override
+    public Iterator<ByteArrayPair> iterator() {
+        return new ArenaSkipListIterator(sentinel);
+    }
+
+    /**
+     * Get an iterator over the items in the skip list, starting from the first key
+     * greater than or equal to the given one.
+     *
+     * @param from The key to start from, null to start from the first item.
+     * @return An iterator over the items in the skip list.
+     */
+    @Override
+    public Iterator<ByteArrayPair> iterator(byte[] from) {
+        if (from == null)
+            return iterator();
+
+        long current = sentinel;
+        for (int i = levels - 1; i >= 0; i--) {
+            long next = getNext(current, i);
+            while (next != 0 && compare(next, from, Long.MAX_VALUE) < 0) {
+                current = next;
+                next = getNext(current, i);
+            }
+        }
+
+        return new ArenaSkipListIterator(current);
+    }
+
+    private long findSplice(byte[] key, long sequence, long[] preds, long[] succs) {
+        long pred = sentinel;
+        for (int i = levels - 1; i >= 0; i--) {
+            long curr = getNext(pred, i);
+            while (curr != 0 && compare(curr, key, sequence) < 0) {
+                pred = curr;
+                curr = getNext(pred, i);
+            }
+            preds[i] = pred;
+            succs[i] = curr;
+        }
+
+        long candidate = succs[0];
+        return candidate != 0 && compare(candidate, key, sequence) == 0 ? candidate : 0;
+    }
+
+    /**
+     * Compare a node with a version of a key, newer versions come first.
+     */
+    private int compare(long node, byte[] key, long sequence) {
+        int cmp = compareKey(node, key);
+        return cmp != 0 ? cmp : Long.compare(sequence, arena.buffer(node).getLong(Arena.offset(node) + SEQUENCE));
+    }
+
+    private int compareKey(long node, byte[] key) {
+        ByteBuffer buffer = arena.buffer(node);
+        int offset = Arena.offset(node);
+        int height = buffer.getInt(offset + HEIGHT);
+
+        return comparator.compare(buffer, offset + NEXT + 8 * height, buffer.getInt(offset + KEY_LENGTH), key);
+    }
+
+    /**
+     * Write a node, the key and the value in a single record, the links are set when it is linked.
+     */
+    private long newNode(ByteArrayPair item, int height) {
+        int keyOffset = NEXT + 8 * height;
+        long node = arena.allocate(keyOffset + item.key().length + valueSize(item));
+        ByteBuffer buffer = arena.buffer(node);
+        int offset = Arena.offset(node);
+
+        buffer.putLong(offset + SEQUENCE, item.sequence());
+        buffer.putInt(offset + KEY_LENGTH, item.key().length);
+        buffer.putInt(offset + HEIGHT, height);
+        buffer.put(offset + keyOffset, item.key());
+
+        long value = node + keyOffset + item.key().length;
+        writeValue(value, item);
+        buffer.putLong(offset + VALUE, value);
+
+        return node;
+    }
+
+    private static int valueSize(ByteArrayPair item) {
+        return 4 + item.value().length;
+    }
+
+    private void writeValue(long value, ByteArrayPair item) {
+        ByteBuffer buffer = arena.buffer(value);
+        int offset = Arena.offset(value);
+
+        buffer.putInt(offset, item.isTombstone() ? -1 : item.value().length);
+        buffer.put(offset + 4, item.value());
+    }
+
+    private byte[] readValue(long node) {
+        long value = (long) LONGS.getAcquire(arena.buffer(node), Arena.offset(node) + VALUE);
+        ByteBuffer buffer = arena.buffer(value);
+        int offset = Arena.offset(value);
+
+        int length = buffer.getInt(offset);
+        if (length == -1)
+            return ByteArrayPair.TOMBSTONE;
+
+        byte[] bytes = new byte[length];
+        buffer.get(offset + 4, bytes);
+        return bytes;
+    }
+
+    private ByteArrayPair readItem(long node) {
+        ByteBuffer buffer = arena.buffer(node);
+        int offset = Arena.offset(node);
+
+        byte[] key = new byte[buffer.getInt(offset + KEY_LENGTH)];
+        buffer.get(offset + NEXT + 8 * buffer.getInt(offset + HEIGHT), key);
+
+        return new ByteArrayPair(key, readValue(node), buffer.getLong(offset + SEQUENCE));
+    }
+
+    private int randomLevel() {
+        int level = 1;
+        long n = ThreadLocalRandom.current().nextLong();
+        while (level < levels && (n & (1L << level)) != 0)
+            level++;
+        return level;
+    }
+
+    private class ArenaSkipListIterator implements Iterator<ByteArrayPair> {
+
+        long node;
+
+        ArenaSkipListIterator(long node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return getNext(node, 0) != 0;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            long next = getNext(node, 0);
+            if (next == 0)
+                return null;
+
+            node = next;
+            return readItem(next);
+        }
+
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.tomfran.lsm.memtable;
+
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.log;
+
+/**
+ * A lock-free skip list implementation of ByteArrayPairs.
+ * <p>
+ * Nodes are linked with compare-and-set operations: an insertion first links the node
+ * in the lowest level, which makes it visible, and then in the upper levels, retrying
+ * the search on conflicts.
+ * <p>
+ * Items are ordered by key, following the list KeyComparator, and by decreasing sequence number, so each version of a key gets its own node,
+ * the newest one first. Adding an item with the same key and sequence number replaces the node value.
+ * <p>
+ * Reads never block nor retry, and iterators are weakly consistent: they reflect
+ * insertions happening after their creation only if they did not pass the position yet.
+ * <p>
+ * Elements are never unlinked, as memtables are only appended to, deletions being tombstones.
+ */
+public class ConcurrentSkipList implements MemtableList {
+
+    static final int DEFAULT_ELEMENTS = 1 << 20;
+
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+
+    final Node sentinel;
+    final int levels;
+    final AtomicInteger size;
+    final KeyComparator comparator;
+
+    /**
+     * Create a skip list with a default number of elements, 2 ^ 20.
+     */
+    public ConcurrentSkipList() {
+        this(DEFAULT_ELEMENTS);
+    }
+
+    /**
+     * Create a skip list with a specified number of elements.
+     *
+     * @param numElements The number of elements to size the skip list for.
+     */
+    public ConcurrentSkipList(int numElements) {
+        this(numElements, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    /**
+     * Create a skip list with a specified number of elements and key order.
+     *
+     * @param numElements The number of elements to size the skip list for.
+     * @param comparator  The key comparator.
+     */
+    public ConcurrentSkipList(int numElements, KeyComparator comparator) {
+        this.comparator = comparator;
+        levels = Math.max(1, (int) ceil(log(numElements) / log(2)));
+        sentinel = new Node(null, levels);
+        size = new AtomicInteger();
+    }
+
+    private static Node getNext(Node node, int level) {
+        return (Node) NEXT.getAcquire(node.next, level);
+    }
+
+    private static boolean casNext(Node node, int level, Node expected, Node value) {
+        return NEXT.compareAndSet(node.next, level, expected, value);
+    }
+
+    /**
+     * Add an item to the skip list, replacing the value of an existing version.
+     *
+     * @param item The item to add.
+     */
+    @Override
+    public void add(ByteArrayPair item) {
+        Node[] preds = new Node[levels];
+        Node[] succs = new Node[levels];
+
+        Node node = null;
+        while (true) {
+            Node found = findSplice(item.key(), item.sequence(), preds, succs);
+            if (found != null) {
+                found.val = item;
+                return;
+            }
+
+            if (node == null)
+                node = new Node(item, randomLevel());
+
+            // link the lowest level first, this makes the node visible
+            NEXT.setRelease(node.next, 0, succs[0]);
+            if (casNext(preds[0], 0, succs[0], node))
+                break;
+        }
+
+        size.incrementAndGet();
+
+        for (int i = 1; i < node.next.length; i++) {
+            while (true) {
+                NEXT.setRelease(node.next, i, succs[i]);
+                if (casNext(preds[i], i, succs[i], node))
+                    break;
+
+                // a concurrent insertion changed the neighbourhood, search again
+                findSplice(item.key(), item.sequence(), preds, succs);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the newest version of an item from the skip list.
+     *
+     * @param key The key of the item to retrieve.
+     * @return The item if found, null otherwise.
+     */
+    public byte[] get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieve the newest version of an item with a sequence number not greater than the given one.
+     *
+     * @param key      The key of the item to retrieve.
+     * @param sequence The greatest visible sequence number.
+     * @return The item if found, null otherwise.
+     */
+    @Override
+    public byte[] get(byte[] key, long sequence) {
+        Node current = sentinel;
+        Node next = null;
+        for (int i = levels - 1; i >= 0; i--) {
+            next = getNext(current, i);
+            while (next != null && compare(next, key, sequence) < 0) {
+                current = next;
+                next = getNext(current, i);
+            }
+        }
+
+        if (next != null && comparator.compare(next.key, key) == 0)
+            return next.val.value();
+
+        return null;
+    }
+
+    /**
+     * Get the number of items in the skip list.
+     *
+     * @return Skip list size.
+     */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Get an iterator over the items in the skip list at the lowest level.
+     *
+     * @return An iterator over the items in the skip list.
+     */
+    @Override
+    public Iterator<ByteArrayPair> iterator() {
+        return new ConcurrentSkipListIterator(sentinel);
+    }
+
+    /**
+     * Get an iterator over the items in the skip list, starting from the first key
+     * greater than or equal to the given one.
+     *
+     * @param from The key to start from, null to start from the first item.
+     * @return An iterator over the items in the skip list.
+     */
+    @Override
+    public Iterator<ByteArrayPair> iterator(byte[] from) {
+        if (from == null)
+            return iterator();
+
+        Node current = sentinel;
+        for (int i = levels - 1; i >= 0; i--) {
+            Node next = getNext(current, i);
+            while (next != null && compare(next, from, Long.MAX_VALUE) < 0) {
+                current = next;
+                next = getNext(current, i);
+            }
+        }
+
+        return new ConcurrentSkipListIterator(current);
+    }
+
+    private Node findSplice(byte[] key, long sequence, Node[] preds, Node[] succs) {
+        Node pred = sentinel;
+        for (int i = levels - 1; i >= 0; i--) {
+            Node curr = getNext(pred, i);
+            while (curr != null && compare(curr, key, sequence) < 0) {
+                pred = curr;
+                curr = getNext(pred, i);
+            }
+            preds[i] = pred;
+            succs[i] = curr;
+        }
+
+        Node candidate = succs[0];
+        return candidate != null && compare(candidate, key, sequence) == 0 ? candidate : null;
+    }
+
+    /**
+     * Compare a node with a version of a key, newer versions come first.
+     */
+    private int compare(Node node, byte[] key, long sequence) {
+        int cmp = comparator.compare(node.key, key);
+        return cmp != 0 ? cmp : Long.compare(sequence, node.sequence);
+    }
+
+    private int randomLevel() {
+        int level = 1;
+        long n = ThreadLocalRandom.current().nextLong();
+        while (level < levels && (n & (1L << level)) != 0)
+            level++;
+        return level;
+    }
+
+    private static final class Node {
+
+        final byte[] key;
+        final long sequence;
+        final Node[] next;
+        volatile ByteArrayPair val;
+
+        Node(ByteArrayPair val, int height) {
+            this.key = val == null ? null : val.key();
+            this.sequence = val == null ? 0 : val.sequence();
+            this.val = val;
+            this.next = new Node[height];
+        }
+
+    }
+
+    private static class ConcurrentSkipListIterator implements Iterator<ByteArrayPair> {
+
+        Node node;
+
+        ConcurrentSkipListIterator(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return getNext(node, 0) != null;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            Node next = getNext(node, 0);
+            if (next == null)
+                return null;
+
+            node = next;
+            return next.val;
+        }
+
+    }
+
+}
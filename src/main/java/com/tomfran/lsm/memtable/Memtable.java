@@ -1,21 +1,67 @@
 package com.tomfran.lsm.memtable;
 
+import com.tomfran.lsm.comparator.KeyComparator;
 import com.tomfran.lsm.types.ByteArrayPair;
-import com.tomfran.lsm.utils.UniqueSortedIterator;
+import com.tomfran.lsm.wal.WriteAheadLog;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * In-memory buffer of the most recent writes.
+ * <p>
+ * It is backed by a ConcurrentSkipList, hence it can be written and read by multiple threads without locking.
+ * With OFF_HEAP storage it is backed by an ArenaSkipList instead, keeping keys, values and links in off-heap slabs,
+ * which are released together once the flushed Memtable is dropped.
+ */
 public class Memtable implements Iterable<ByteArrayPair> {
 
-    SkipList list;
-    long byteSize;
+    MemtableList list;
+    LongAdder byteSize;
+    final WriteAheadLog log;
 
     /**
      * Initialize a Memtable with default list size.
      */
     public Memtable() {
-        list = new SkipList();
-        byteSize = 0L;
+        this(null);
+    }
+
+    /**
+     * Initialize a Memtable with default list size, backed by a write-ahead log segment.
+     *
+     * @param log the segment storing the Memtable writes, can be null.
+     */
+    public Memtable(WriteAheadLog log) {
+        this(log, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    /**
+     * Initialize a Memtable with default list size and the given key order, backed by a write-ahead log segment.
+     *
+     * @param log        the segment storing the Memtable writes, can be null.
+     * @param comparator the key comparator.
+     */
+    public Memtable(WriteAheadLog log, KeyComparator comparator) {
+        this(log, comparator, Storage.HEAP);
+    }
+
+    /**
+     * Initialize a Memtable with default list size, the given key order and storage,
+     * backed by a write-ahead log segment.
+     *
+     * @param log        the segment storing the Memtable writes, can be null.
+     * @param comparator the key comparator.
+     * @param storage    where the items are stored.
+     */
+    public Memtable(WriteAheadLog log, KeyComparator comparator, Storage storage) {
+        list = switch (storage) {
+            case HEAP -> new ConcurrentSkipList(ConcurrentSkipList.DEFAULT_ELEMENTS, comparator);
+            case OFF_HEAP -> new ArenaSkipList(ConcurrentSkipList.DEFAULT_ELEMENTS, comparator);
+        };
+        byteSize = new LongAdder();
+        this.log = log;
     }
 
     /**
@@ -25,17 +71,42 @@ public class Memtable implements Iterable<ByteArrayPair> {
      */
     public void add(ByteArrayPair item) {
         list.add(item);
-        byteSize += item.size();
+        byteSize.add(item.size());
+    }
+
+    /**
+     * Add many items to the underlying list, in order.
+     *
+     * @param items the items to add.
+     */
+    public void addAll(List<ByteArrayPair> items) {
+        long size = 0;
+        for (ByteArrayPair item : items) {
+            list.add(item);
+            size += item.size();
+        }
+        byteSize.add(size);
     }
 
     /**
      * Retrieve an item from the underlying list.
      *
      * @param key the key of the wanted element.
-     * @return the found element or null.
+     * @return the found element, ByteArrayPair.TOMBSTONE if it was removed, or null.
      */
     public byte[] get(byte[] key) {
-        return list.get(key);
+        return list.get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieve the newest version of an item with a sequence number not greater than the given one.
+     *
+     * @param key      the key of the wanted element.
+     * @param sequence the greatest visible sequence number.
+     * @return the found element, ByteArrayPair.TOMBSTONE if it was removed, or null.
+     */
+    public byte[] get(byte[] key, long sequence) {
+        return list.get(key, sequence);
     }
 
     /**
@@ -44,7 +115,7 @@ public class Memtable implements Iterable<ByteArrayPair> {
      * @param key the key of the element to remove.
      */
     public void remove(byte[] key) {
-        list.add(new ByteArrayPair(key, new byte[]{}));
+        list.add(ByteArrayPair.tombstone(key));
     }
 
     /**
@@ -53,17 +124,51 @@ public class Memtable implements Iterable<ByteArrayPair> {
      * @return bytes indicating size of underlying list.
      */
     public long byteSize() {
-        return byteSize;
+        return byteSize.sum();
+    }
+
+    /**
+     * Return the write-ahead log segment backing the Memtable.
+     *
+     * @return the log segment, or null if the Memtable is not logged.
+     */
+    public WriteAheadLog log() {
+        return log;
     }
 
     /**
-     * Returns an iterator discarding duplicated elements.
+     * Returns an iterator over every version of the elements, the newest version of a key first.
      *
-     * @return modified underlying list iterator.
+     * @return underlying list iterator.
      */
     @Override
     public Iterator<ByteArrayPair> iterator() {
-        return new UniqueSortedIterator<>(list.iterator());
+        return list.iterator();
+    }
+
+    /**
+     * Returns an iterator over every version of the elements, starting from the
+     * first key greater than or equal to the given one.
+     *
+     * @param from the key to start from, null to start from the first element.
+     * @return underlying list iterator.
+     */
+    public Iterator<ByteArrayPair> iterator(byte[] from) {
+        return list.iterator(from);
+    }
+
+    /**
+     * Where a Memtable stores its items.
+     * <ul>
+     *     <li>HEAP: a node object per item, holding the item and its links;</li>
+     *     <li>OFF_HEAP: items and links are copied to direct buffers allocated in large slabs,
+     *     the heap only holds a few objects per Memtable, at the cost of copying keys and values
+     *     in and out.</li>
+     * </ul>
+     */
+    public enum Storage {
+        HEAP,
+        OFF_HEAP
     }
 
 }
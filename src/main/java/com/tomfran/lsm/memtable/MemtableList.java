@@ -0,0 +1,47 @@
+package com.tomfran.lsm.memtable;
+
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.util.Iterator;
+
+/**
+ * Sorted list backing a Memtable, written and read by multiple threads without locking.
+ * <p>
+ * Items are ordered by key and by decreasing sequence number, adding an item with the same key
+ * and sequence number replaces its value.
+ */
+public interface MemtableList extends Iterable<ByteArrayPair> {
+
+    /**
+     * Add an item to the list, replacing the value of an existing version.
+     *
+     * @param item The item to add.
+     */
+    void add(ByteArrayPair item);
+
+    /**
+     * Retrieve the newest version of an item with a sequence number not greater than the given one.
+     *
+     * @param key      The key of the item to retrieve.
+     * @param sequence The greatest visible sequence number.
+     * @return The item value if found, null otherwise.
+     */
+    byte[] get(byte[] key, long sequence);
+
+    /**
+     * Get the number of items in the list.
+     *
+     * @return List size.
+     */
+    int size();
+
+    /**
+     * Get an iterator over the items in the list, starting from the first key
+     * greater than or equal to the given one.
+     *
+     * @param from The key to start from, null to start from the first item.
+     * @return An iterator over the items in the list.
+     */
+    Iterator<ByteArrayPair> iterator(byte[] from);
+
+}
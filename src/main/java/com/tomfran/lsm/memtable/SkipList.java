@@ -1,11 +1,12 @@
 package com.tomfran.lsm.memtable;
 
+import com.tomfran.lsm.comparator.KeyComparator;
 import com.tomfran.lsm.types.ByteArrayPair;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
 
+import java.util.Comparator;
 import java.util.Iterator;
 
-import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
 import static java.lang.Math.ceil;
 import static java.lang.Math.log;
 
@@ -20,6 +21,8 @@ public class SkipList implements Iterable<ByteArrayPair> {
 
     private final Node[] buffer;
     private final XoRoShiRo128PlusRandom rn;
+    private final KeyComparator comparator;
+    private final Comparator<ByteArrayPair> pairComparator;
 
     int levels;
     int size;
@@ -37,6 +40,18 @@ public class SkipList implements Iterable<ByteArrayPair> {
      * @param numElements The number of elements to size the skip list for.
      */
     public SkipList(int numElements) {
+        this(numElements, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    /**
+     * Create a skip list with a specified number of elements and key order.
+     *
+     * @param numElements The number of elements to size the skip list for.
+     * @param comparator  The key comparator.
+     */
+    public SkipList(int numElements, KeyComparator comparator) {
+        this.comparator = comparator;
+        this.pairComparator = ByteArrayPair.comparator(comparator);
         levels = (int) ceil(log(numElements) / log(2));
         size = 0;
         sentinel = new Node(null, levels);
@@ -52,12 +67,12 @@ public class SkipList implements Iterable<ByteArrayPair> {
     public void add(ByteArrayPair item) {
         Node current = sentinel;
         for (int i = levels - 1; i >= 0; i--) {
-            while (current.next[i] != null && current.next[i].val.compareTo(item) < 0)
+            while (current.next[i] != null && pairComparator.compare(current.next[i].val, item) < 0)
                 current = current.next[i];
             buffer[i] = current;
         }
 
-        if (current.next[0] != null && current.next[0].val.compareTo(item) == 0) {
+        if (current.next[0] != null && pairComparator.compare(current.next[0].val, item) == 0) {
             current.next[0].val = item;
             return;
         }
@@ -87,11 +102,11 @@ public class SkipList implements Iterable<ByteArrayPair> {
     public byte[] get(byte[] key) {
         Node current = sentinel;
         for (int i = levels - 1; i >= 0; i--) {
-            while (current.next[i] != null && compare(current.next[i].val.key(), key) < 0)
+            while (current.next[i] != null && comparator.compare(current.next[i].val.key(), key) < 0)
                 current = current.next[i];
         }
 
-        if (current.next[0] != null && compare(current.next[0].val.key(), key) == 0)
+        if (current.next[0] != null && comparator.compare(current.next[0].val.key(), key) == 0)
             return current.next[0].val.value();
 
         return null;
@@ -105,12 +120,12 @@ public class SkipList implements Iterable<ByteArrayPair> {
     public void remove(byte[] key) {
         Node current = sentinel;
         for (int i = levels - 1; i >= 0; i--) {
-            while (current.next[i] != null && compare(current.next[i].val.key(), key) < 0)
+            while (current.next[i] != null && comparator.compare(current.next[i].val.key(), key) < 0)
                 current = current.next[i];
             buffer[i] = current;
         }
 
-        if (current.next[0] != null && compare(current.next[0].val.key(), key) == 0) {
+        if (current.next[0] != null && comparator.compare(current.next[0].val.key(), key) == 0) {
             boolean last = current.next[0].next[0] == null;
             for (int i = 0; i < levels; i++) {
                 if (buffer[i].next[i] != current.next[0])
@@ -140,6 +155,26 @@ public class SkipList implements Iterable<ByteArrayPair> {
         return new SkipListIterator(sentinel);
     }
 
+    /**
+     * Get an iterator over the items in the skip list, starting from the first key
+     * greater than or equal to the given one.
+     *
+     * @param from The key to start from, null to start from the first item.
+     * @return An iterator over the items in the skip list.
+     */
+    public Iterator<ByteArrayPair> iterator(byte[] from) {
+        if (from == null)
+            return iterator();
+
+        Node current = sentinel;
+        for (int i = levels - 1; i >= 0; i--) {
+            while (current.next[i] != null && comparator.compare(current.next[i].val.key(), from) < 0)
+                current = current.next[i];
+        }
+
+        return new SkipListIterator(current);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
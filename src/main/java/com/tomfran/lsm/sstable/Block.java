@@ -0,0 +1,258 @@
+package com.tomfran.lsm.sstable;
+
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.io.ByteBufferDecoder;
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A data block of an SSTable.
+ * <p>
+ * Items are written one after the other, as type, sequence number, shared key length, unshared key length,
+ * value length, unshared key bytes, value. A key only stores the bytes following the prefix it shares
+ * with the previous key, except every restartInterval items, at the restart points, where it is written in full.
+ * The block ends with a trailer holding the position of each restart point, the restart interval
+ * and the number of items, as 4 bytes ints:
+ * <pre>
+ * item_0 | ... | item_n-1 | restart_0 | ... | restart_r-1 | interval | n
+ * </pre>
+ * A key is found with a binary search on the restart points, followed by a linear scan of at most
+ * restartInterval items. Versions of a key are sorted from the newest, and never split across blocks.
+ * <p>
+ * The block only performs absolute reads on its buffer, so the same buffer can be shared
+ * by many threads, as it happens with cached blocks.
+ */
+class Block {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteBuffer data;
+    private final KeyComparator comparator;
+    private final int size;
+    private final int restartInterval;
+    private final int restarts;
+    private final int trailerPosition;
+
+    /**
+     * Wrap an encoded block.
+     *
+     * @param data       The block bytes, from position zero to the buffer limit.
+     * @param comparator The order of the keys.
+     */
+    Block(ByteBuffer data, KeyComparator comparator) {
+        this.data = data;
+        this.comparator = comparator;
+        this.size = data.getInt(data.limit() - 4);
+        this.restartInterval = data.getInt(data.limit() - 8);
+        this.restarts = size == 0 ? 0 : (size - 1) / restartInterval + 1;
+        this.trailerPosition = data.limit() - 8 - 4 * restarts;
+    }
+
+    /**
+     * Get the number of items in the block.
+     *
+     * @return Block size.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Search the newest version of a key.
+     *
+     * @param key The key to search.
+     * @return The index of the key if present, otherwise (-(insertion point) - 1),
+     * where the insertion point is the index of the first greater key, as in Arrays.binarySearch.
+     */
+    int search(byte[] key) {
+        return search(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Search the newest version of a key with a sequence number not greater than the given one.
+     *
+     * @param key      The key to search.
+     * @param sequence The greatest visible sequence number.
+     * @return The index of the version if present, otherwise (-(insertion point) - 1),
+     * where the insertion point is the index of the first greater item, as in Arrays.binarySearch.
+     */
+    int search(byte[] key, long sequence) {
+        // last restart point starting before (key, sequence), versions being sorted by decreasing sequence
+        int low = 0;
+        int high = restarts - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            Cursor head = new Cursor(mid);
+            head.advance();
+
+            if (compareItems(head.key, head.sequence, key, sequence) < 0)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        // then the first item not smaller than (key, sequence)
+        Cursor cursor = new Cursor(low);
+        while (cursor.hasNext()) {
+            cursor.advance();
+            if (compareItems(cursor.key, cursor.sequence, key, sequence) >= 0) {
+                int index = cursor.index - 1;
+                return comparator.compare(cursor.key, key) == 0 ? index : -(index + 1);
+            }
+        }
+
+        return -(size + 1);
+    }
+
+    /**
+     * Read the key of an item.
+     *
+     * @param index The item index.
+     * @return The item key.
+     */
+    byte[] key(int index) {
+        Cursor cursor = cursor(index);
+        cursor.advance();
+        return cursor.key;
+    }
+
+    /**
+     * Read the value of an item.
+     *
+     * @param index The item index.
+     * @return The item value, ByteArrayPair.TOMBSTONE if the key is deleted.
+     */
+    byte[] value(int index) {
+        Cursor cursor = cursor(index);
+        cursor.advance();
+        return cursor.value();
+    }
+
+    /**
+     * Read an item.
+     *
+     * @param index The item index.
+     * @return The item.
+     */
+    ByteArrayPair item(int index) {
+        return cursor(index).next();
+    }
+
+    /**
+     * Get a cursor reading the items in order, starting from the given one.
+     *
+     * @param index The index of the first item to read.
+     * @return The cursor.
+     */
+    Cursor cursor(int index) {
+        Cursor cursor = new Cursor(index / restartInterval);
+        while (cursor.index < index)
+            cursor.advance();
+
+        return cursor;
+    }
+
+    /**
+     * Compare (key, sequence) items, versions of a key being sorted by decreasing sequence.
+     */
+    private int compareItems(byte[] key, long sequence, byte[] otherKey, long otherSequence) {
+        int cmp = comparator.compare(key, otherKey);
+        return cmp != 0 ? cmp : Long.compare(otherSequence, sequence);
+    }
+
+    /**
+     * Sequential reader of the block items, keys are rebuilt from the previous one.
+     */
+    class Cursor {
+
+        private final ByteBufferDecoder decoder;
+        // index of the next item
+        private int index;
+        // fields of the current item, its value is read on demand
+        private int type;
+        private long sequence;
+        private byte[] key = EMPTY;
+        private int pendingValue;
+
+        private Cursor(int restart) {
+            index = restart * restartInterval;
+            if (restart >= restarts) {
+                index = size;
+                decoder = null;
+                return;
+            }
+
+            int position = data.getInt(trailerPosition + 4 * restart);
+            decoder = new ByteBufferDecoder(data.duplicate().position(position).limit(trailerPosition));
+        }
+
+        /**
+         * Check whether there are items left.
+         *
+         * @return True if next can be called.
+         */
+        boolean hasNext() {
+            return index < size;
+        }
+
+        /**
+         * Read the next item.
+         *
+         * @return The item.
+         */
+        ByteArrayPair next() {
+            advance();
+            return ByteArrayPair.of(type, sequence, key, value());
+        }
+
+        /**
+         * Move to the next item, reading everything but its value.
+         */
+        private void advance() {
+            if (pendingValue > 0)
+                decoder.skip(pendingValue);
+
+            type = decoder.readByteInt();
+            sequence = decoder.readVByteLong();
+            int shared = decoder.readVByteInt();
+            int unshared = decoder.readVByteInt();
+            pendingValue = decoder.readVByteInt();
+
+            // versions of a key share it entirely
+            if (unshared == 0 && shared == key.length) {
+                index++;
+                return;
+            }
+
+            byte[] suffix = decoder.readNBytes(unshared);
+            if (shared == 0) {
+                key = suffix;
+            } else {
+                byte[] next = new byte[shared + unshared];
+                System.arraycopy(key, 0, next, 0, shared);
+                System.arraycopy(suffix, 0, next, shared, unshared);
+                key = next;
+            }
+            index++;
+        }
+
+        /**
+         * Read the value of the current item.
+         */
+        private byte[] value() {
+            if (type == ByteArrayPair.TYPE_TOMBSTONE) {
+                decoder.skip(pendingValue);
+                pendingValue = 0;
+                return ByteArrayPair.TOMBSTONE;
+            }
+
+            byte[] value = decoder.readNBytes(pendingValue);
+            pendingValue = 0;
+            return value;
+        }
+
+    }
+
+}
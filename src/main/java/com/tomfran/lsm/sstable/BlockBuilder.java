@@ -0,0 +1,104 @@
+package com.tomfran.lsm.sstable;
+
+import com.tomfran.lsm.io.ByteArrayEncoder;
+import com.tomfran.lsm.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates items in the Block format.
+ * <p>
+ * Items are encoded as they are added, each key only stores the suffix it does not share with the previous one,
+ * except at restart points, every restartInterval items, where keys are written in full.
+ * The trailer is appended when the block is finished, after which the builder can be reused for the next block.
+ */
+class BlockBuilder {
+
+    private final ByteArrayEncoder encoder;
+    private final int restartInterval;
+    private final IntArrayList restarts;
+    private byte[] lastKey;
+    private int size;
+
+    BlockBuilder(int blockSize, int restartInterval) {
+        encoder = new ByteArrayEncoder(blockSize + blockSize / 4);
+        this.restartInterval = restartInterval;
+        restarts = new IntArrayList();
+    }
+
+    /**
+     * Add an item to the block, items are assumed to be sorted.
+     *
+     * @param item The item to add.
+     */
+    void add(ByteArrayPair item) {
+        byte[] key = item.key(), value = item.value();
+
+        int shared = 0;
+        if (size % restartInterval == 0)
+            restarts.add(encoder.size());
+        else
+            shared = sharedPrefix(lastKey, key);
+
+        encoder.writeByte(item.type());
+        encoder.writeVByteLong(item.sequence());
+        encoder.writeVByteInt(shared);
+        encoder.writeVByteInt(key.length - shared);
+        encoder.writeVByteInt(value.length);
+        encoder.write(key, shared, key.length - shared);
+        encoder.write(value);
+
+        lastKey = key;
+        size++;
+    }
+
+    /**
+     * Get the number of items added to the current block.
+     *
+     * @return Number of items.
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the encoded size of the current block, excluding the trailer.
+     *
+     * @return Size in bytes.
+     */
+    int byteSize() {
+        return encoder.size();
+    }
+
+    /**
+     * Append the trailer and return the encoded block, the builder is then reset.
+     *
+     * @return The block bytes.
+     */
+    byte[] finish() {
+        for (int i = 0; i < restarts.size(); i++)
+            encoder.writeInt(restarts.getInt(i));
+
+        encoder.writeInt(restartInterval);
+        encoder.writeInt(size);
+
+        byte[] block = encoder.toByteArray();
+        encoder.reset();
+        restarts.clear();
+        lastKey = null;
+        size = 0;
+
+        return block;
+    }
+
+    private static int sharedPrefix(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return mismatch == -1 ? a.length : mismatch;
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.tomfran.lsm.sstable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size bounded LRU cache of SSTable data blocks, shared by many tables.
+ * <p>
+ * Blocks are identified by the table id and the block index. The cache is split in shards,
+ * each one being an LRU list guarded by its own lock, so that concurrent lookups of different
+ * blocks rarely contend. Each shard holds at most maxByteSize / shards bytes.
+ * <p>
+ * Cached buffers are shared, readers must only perform absolute reads on them.
+ */
+public class BlockCache {
+
+    static final int DEFAULT_SHARDS = 16;
+
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a cache with a default number of shards.
+     *
+     * @param maxByteSize The maximum size of the cached blocks.
+     */
+    public BlockCache(long maxByteSize) {
+        this(maxByteSize, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxByteSize The maximum size of the cached blocks.
+     * @param numShards   The number of shards, rounded up to a power of two.
+     */
+    public BlockCache(long maxByteSize, int numShards) {
+        int n = numShards <= 1 ? 1 : Integer.highestOneBit(numShards - 1) << 1;
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            shards[i] = new Shard(maxByteSize / n);
+    }
+
+    /**
+     * Get a block, marking it as the most recently used.
+     *
+     * @param tableId    The table id.
+     * @param blockIndex The block index in the table.
+     * @return The block bytes, or null if the block is not cached.
+     */
+    ByteBuffer get(long tableId, int blockIndex) {
+        long key = key(tableId, blockIndex);
+        ByteBuffer block = shard(key).get(key);
+
+        if (block == null)
+            misses.increment();
+        else
+            hits.increment();
+
+        return block;
+    }
+
+    /**
+     * Add a block, evicting the least recently used ones if the shard is full.
+     *
+     * @param tableId    The table id.
+     * @param blockIndex The block index in the table.
+     * @param block      The block bytes.
+     */
+    void put(long tableId, int blockIndex, ByteBuffer block) {
+        long key = key(tableId, blockIndex);
+        shard(key).put(key, block);
+    }
+
+    /**
+     * Get the total size of the cached blocks.
+     *
+     * @return Size in bytes.
+     */
+    public long byteSize() {
+        long size = 0;
+        for (Shard shard : shards)
+            size += shard.byteSize();
+
+        return size;
+    }
+
+    /**
+     * Get the number of lookups that found their block.
+     *
+     * @return Number of hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that did not find their block.
+     *
+     * @return Number of misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private static long key(long tableId, int blockIndex) {
+        return tableId << 32 | blockIndex;
+    }
+
+    private Shard shard(long key) {
+        // spread the bits, consecutive blocks of a table should land on different shards
+        long h = key * 0x9E3779B97F4A7C15L;
+        return shards[(int) (h >>> 32) & (shards.length - 1)];
+    }
+
+    private static class Shard {
+
+        private final long maxByteSize;
+        private final Long2ObjectLinkedOpenHashMap<ByteBuffer> blocks = new Long2ObjectLinkedOpenHashMap<>();
+        private long byteSize;
+
+        Shard(long maxByteSize) {
+            this.maxByteSize = maxByteSize;
+        }
+
+        synchronized ByteBuffer get(long key) {
+            return blocks.getAndMoveToLast(key);
+        }
+
+        synchronized void put(long key, ByteBuffer block) {
+            if (block.capacity() > maxByteSize)
+                return;
+
+            ByteBuffer previous = blocks.putAndMoveToLast(key, block);
+            if (previous != null)
+                byteSize -= previous.capacity();
+
+            byteSize += block.capacity();
+
+            while (byteSize > maxByteSize)
+                byteSize -= blocks.removeFirst().capacity();
+        }
+
+        synchronized long byteSize() {
+            return byteSize;
+        }
+
+    }
+
+}
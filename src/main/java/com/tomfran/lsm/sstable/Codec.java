@@ -0,0 +1,122 @@
+package com.tomfran.lsm.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression codec of SSTable data blocks.
+ * <p>
+ * Each block is compressed on its own, so that a lookup only decompresses the block it needs.
+ * The codec id is stored in the table index, hence tables written with different codecs
+ * can be read by the same tree.
+ * <ul>
+ *     <li>NONE: blocks are stored as they are;</li>
+ *     <li>DEFLATE: blocks are compressed with the JDK Deflater, prefixed by their uncompressed size
+ *     as a 4 bytes int.</li>
+ * </ul>
+ */
+public enum Codec {
+
+    NONE(0) {
+        @Override
+        byte[] compress(byte[] block) {
+            return block;
+        }
+
+        @Override
+        ByteBuffer decompress(ByteBuffer data) {
+            return data;
+        }
+    },
+
+    DEFLATE(1) {
+        @Override
+        byte[] compress(byte[] block) {
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setInput(block);
+            deflater.finish();
+
+            // incompressible data can grow slightly, leave some room on top of the header
+            byte[] out = new byte[4 + block.length + block.length / 16 + 64];
+            ByteBuffer.wrap(out).putInt(block.length);
+
+            int length = 4;
+            while (!deflater.finished()) {
+                if (length == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+
+                length += deflater.deflate(out, length, out.length - length);
+            }
+
+            return Arrays.copyOf(out, length);
+        }
+
+        @Override
+        ByteBuffer decompress(ByteBuffer data) {
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+
+            ByteBuffer out = ByteBuffer.allocate(data.getInt(data.position()));
+            inflater.setInput(data.duplicate().position(data.position() + 4));
+
+            try {
+                while (out.hasRemaining() && !inflater.finished()) {
+                    // a truncated block runs out of input, inflate would return 0 forever
+                    if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new RuntimeException("Corrupted block, truncated data");
+                }
+            } catch (DataFormatException e) {
+                throw new RuntimeException("Corrupted block", e);
+            }
+
+            if (out.hasRemaining())
+                throw new RuntimeException("Corrupted block, " + out.remaining() + " bytes missing");
+
+            return out.flip();
+        }
+    };
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    final int id;
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Get a codec from its id, as stored in a table index.
+     *
+     * @param id The codec id.
+     * @return The codec.
+     */
+    static Codec fromId(int id) {
+        for (Codec codec : values())
+            if (codec.id == id)
+                return codec;
+
+        throw new IllegalArgumentException("Unknown codec " + id);
+    }
+
+    /**
+     * Compress an encoded block.
+     *
+     * @param block The block bytes.
+     * @return The bytes to store.
+     */
+    abstract byte[] compress(byte[] block);
+
+    /**
+     * Restore a block from its stored bytes.
+     *
+     * @param data The stored bytes, from position to limit.
+     * @return The block bytes.
+     */
+    abstract ByteBuffer decompress(ByteBuffer data);
+
+}
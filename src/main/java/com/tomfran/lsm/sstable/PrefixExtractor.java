@@ -0,0 +1,54 @@
+package com.tomfran.lsm.sstable;
+
+import java.util.Arrays;
+
+/**
+ * Extracts the prefix of a key, indexed by the SSTable prefix Bloom filter.
+ * <p>
+ * An extractor must be consistent: if the prefix of a byte array p is not null, every key starting with p
+ * must have the same prefix. Prefix scans rely on it to test their prefix against the filter,
+ * and the extractor must not change once tables are written with it.
+ */
+@FunctionalInterface
+public interface PrefixExtractor {
+
+    /**
+     * Extract the prefix of a key.
+     *
+     * @param key The key.
+     * @return The prefix, or null if the key has none.
+     */
+    byte[] prefix(byte[] key);
+
+    /**
+     * Create an extractor returning the first bytes of a key, keys that are too short have no prefix.
+     *
+     * @param length The prefix length.
+     * @return The extractor.
+     */
+    static PrefixExtractor fixedLength(int length) {
+        return key -> key.length < length ? null : Arrays.copyOf(key, length);
+    }
+
+    /**
+     * Create an extractor returning the first fields of a key, up to and including the delimiter
+     * closing the last of them, keys with fewer fields have no prefix.
+     * <p>
+     * For instance, with '|' as the delimiter and two fields, the prefix of "tenant|entity|ts" is "tenant|entity|".
+     *
+     * @param delimiter The field delimiter.
+     * @param fields    The number of fields in the prefix.
+     * @return The extractor.
+     */
+    static PrefixExtractor delimited(byte delimiter, int fields) {
+        return key -> {
+            int found = 0;
+            for (int i = 0; i < key.length; i++)
+                if (key[i] == delimiter && ++found == fields)
+                    return Arrays.copyOf(key, i + 1);
+
+            return null;
+        };
+    }
+
+}
@@ -1,54 +1,78 @@
 package com.tomfran.lsm.sstable;
 
 import com.tomfran.lsm.bloom.BloomFilter;
-import com.tomfran.lsm.comparator.ByteArrayComparator;
+import com.tomfran.lsm.bloom.KeyFilter;
+import com.tomfran.lsm.comparator.KeyComparator;
 import com.tomfran.lsm.io.ExtendedInputStream;
 import com.tomfran.lsm.io.ExtendedOutputStream;
 import com.tomfran.lsm.types.ByteArrayPair;
 import com.tomfran.lsm.utils.IteratorMerger;
-import com.tomfran.lsm.utils.UniqueSortedIterator;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
-
 public class SSTable implements Iterable<ByteArrayPair> {
 
     public static final String DATA_FILE_EXTENSION = ".data";
     public static final String BLOOM_FILE_EXTENSION = ".bloom";
+    public static final String PREFIX_BLOOM_FILE_EXTENSION = ".pbloom";
     public static final String INDEX_FILE_EXTENSION = ".index";
+    public static final String SST_FILE_PREFIX = "sst_";
 
     private static final int DEFAULT_SAMPLE_SIZE = 1000;
+    // below this many input blocks per range, splitting a merge costs more than it saves
+    static final int MIN_SUBCOMPACTION_BLOCKS = 64;
 
     static final AtomicLong SST_COUNTER = new AtomicLong();
+    // identifies tables in the block cache, file names are not unique across directories
+    static final AtomicLong TABLE_ID_COUNTER = new AtomicLong();
 
     public String filename;
-    ExtendedInputStream is;
+    final long id = TABLE_ID_COUNTER.incrementAndGet();
+    final SSTableOptions options;
+    final KeyComparator comparator;
+    FileChannel channel;
+    MappedByteBuffer mappedData;
+    long dataSize;
+    private final AtomicInteger references = new AtomicInteger();
+    Codec codec;
     public int size;
 
     LongArrayList sparseOffsets;
     IntArrayList sparseSizeCount;
     ObjectArrayList<byte[]> sparseKeys;
-    BloomFilter bloomFilter;
+    KeyFilter filter;
+    // filter of the key prefixes, null if the table was written without a prefix extractor
+    KeyFilter prefixFilter;
 
     byte[] minKey;
     byte[] maxKey;
+    long maxSequence;
 
     /**
      * Create a new SSTable from an Iterable of Items.
      *
      * @param filename   The filename to write the SSTable to.
      * @param items      The items to write to the SSTable, assumed to be sorted.
-     * @param sampleSize The number of items to skip between sparse index entries.
+     * @param sampleSize The maximum number of items in a data block.
      */
     public SSTable(String directory, Iterator<ByteArrayPair> items, int sampleSize) {
         this(getNextSstFilename(directory), items, sampleSize, 1024 * 1024 * 256);
@@ -62,11 +86,20 @@ public class SSTable implements Iterable<ByteArrayPair> {
         this(getNextSstFilename(directory), items, DEFAULT_SAMPLE_SIZE, maxByteSize);
     }
 
+    public SSTable(String directory, Iterator<ByteArrayPair> items, long maxByteSize, SSTableOptions options) {
+        this(getNextSstFilename(directory), items, DEFAULT_SAMPLE_SIZE, maxByteSize, options);
+    }
 
     public SSTable(String filename, Iterator<ByteArrayPair> items, int sampleSize, long maxByteSize) {
+        this(filename, items, sampleSize, maxByteSize, new SSTableOptions());
+    }
+
+    public SSTable(String filename, Iterator<ByteArrayPair> items, int sampleSize, long maxByteSize, SSTableOptions options) {
         this.filename = filename;
+        this.options = options;
+        this.comparator = options.comparator;
         writeItems(filename, items, sampleSize, maxByteSize);
-        is = new ExtendedInputStream(filename + DATA_FILE_EXTENSION);
+        openDataFile();
     }
 
     /**
@@ -75,20 +108,151 @@ public class SSTable implements Iterable<ByteArrayPair> {
      * @param filename The base filename of the SSTable.
      */
     public SSTable(String filename) {
+        this(filename, new SSTableOptions());
+    }
+
+    /**
+     * Initialize an SSTable from disk, with the given options.
+     *
+     * @param filename The base filename of the SSTable.
+     * @param options  The table configuration.
+     */
+    public SSTable(String filename, SSTableOptions options) {
         this.filename = filename;
+        this.options = options;
+        this.comparator = options.comparator;
         initializeFromDisk(filename);
     }
 
     public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, SSTable... tables) {
-        SSTableIterator[] itArray = Arrays.stream(tables).map(SSTable::iterator).toArray(SSTableIterator[]::new);
+        return sortedRun(dataDir, sstMaxSize, new SSTableOptions(), tables);
+    }
+
+    public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, SSTableOptions options, SSTable... tables) {
+        return mergeRange(dataDir, sstMaxSize, options, null, null, new long[0], false, tables);
+    }
+
+    /**
+     * Merge tables into a sorted run, splitting the work in subcompactions.
+     * <p>
+     * The key space is split in disjoint ranges holding about the same number of blocks, using the
+     * first keys of the input blocks as boundaries. Each range is merged by its own task on the pool,
+     * and writes its own tables, which are then concatenated in key order.
+     * <p>
+     * Of each key, the newest version is kept, along with the older ones still visible to a snapshot.
+     * Tombstones can be dropped when no older version of their keys exists outside the inputs,
+     * as it happens when merging into the last level.
+     *
+     * @param dataDir        The directory to write the tables to.
+     * @param sstMaxSize     The maximum size of each output table.
+     * @param options        The output tables configuration.
+     * @param pool           The pool running the subcompactions.
+     * @param snapshots      The sequence numbers of the live snapshots, sorted.
+     * @param dropTombstones Whether to drop tombstones along with the versions they shadow.
+     * @param tables         The tables to merge, from the newest to the oldest.
+     * @return The output tables, sorted by key range, possibly empty if every key was deleted.
+     */
+    public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, SSTableOptions options,
+                                                     ForkJoinPool pool, long[] snapshots, boolean dropTombstones,
+                                                     SSTable... tables) {
+        ObjectArrayList<byte[]> boundaries = subcompactionBoundaries(pool.getParallelism(), options.comparator,
+                                                                     tables);
+        if (boundaries.isEmpty())
+            return mergeRange(dataDir, sstMaxSize, options, null, null, snapshots, dropTombstones, tables);
+
+        ObjectArrayList<ForkJoinTask<ObjectArrayList<SSTable>>> tasks = new ObjectArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            byte[] from = i == 0 ? null : boundaries.get(i - 1);
+            byte[] to = i == boundaries.size() ? null : boundaries.get(i);
+
+            tasks.add(pool.submit(() -> mergeRange(dataDir, sstMaxSize, options, from, to, snapshots, dropTombstones,
+                                                   tables)));
+        }
+
+        // every task is joined, so that no range is still writing when a failure is reported
+        ObjectArrayList<SSTable> res = new ObjectArrayList<>();
+        RuntimeException failure = null;
+        for (var task : tasks) {
+            try {
+                res.addAll(task.join());
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null) {
+            // the tables of the other ranges are not part of any level
+            res.forEach(SSTable::closeAndDelete);
+            throw failure;
+        }
 
-        IteratorMerger<ByteArrayPair> merger = new IteratorMerger<>(itArray);
-        UniqueSortedIterator<ByteArrayPair> uniqueSortedIterator = new UniqueSortedIterator<>(merger);
+        return res;
+    }
+
+    /**
+     * Pick the keys splitting a merge in ranges, so that each one holds at least
+     * MIN_SUBCOMPACTION_BLOCKS input blocks.
+     */
+    private static ObjectArrayList<byte[]> subcompactionBoundaries(int parallelism, KeyComparator comparator,
+                                                                  SSTable... tables) {
+        ObjectArrayList<byte[]> keys = new ObjectArrayList<>();
+        for (SSTable table : tables)
+            keys.addAll(table.sparseKeys);
+
+        int ranges = Math.min(parallelism, keys.size() / MIN_SUBCOMPACTION_BLOCKS);
+        ObjectArrayList<byte[]> boundaries = new ObjectArrayList<>();
+        if (ranges <= 1)
+            return boundaries;
+
+        keys.sort(comparator);
+        for (int i = 1; i < ranges; i++) {
+            byte[] key = keys.get(i * keys.size() / ranges);
+            // the same key can start blocks of many tables
+            if (boundaries.isEmpty() || comparator.compare(boundaries.top(), key) < 0)
+                boundaries.add(key);
+        }
+
+        return boundaries;
+    }
+
+    /**
+     * Merge the items of the tables in [from, to) into new tables.
+     */
+    private static ObjectArrayList<SSTable> mergeRange(String dataDir, long sstMaxSize, SSTableOptions options,
+                                                       byte[] from, byte[] to, long[] snapshots,
+                                                       boolean dropTombstones, SSTable... tables) {
+        KeyComparator comparator = options.comparator;
+        @SuppressWarnings("unchecked")
+        Iterator<ByteArrayPair>[] itArray = Arrays.stream(tables)
+                                                  .filter(t -> to == null || comparator.compare(t.minKey, to) < 0)
+                                                  .map(t -> t.iterator(from))
+                                                  .toArray(Iterator[]::new);
+
+        IteratorMerger<ByteArrayPair> merger = new IteratorMerger<>(ByteArrayPair.comparator(comparator), itArray);
+        CompactionIterator items = new CompactionIterator(merger, comparator, to, snapshots, dropTombstones);
 
         ObjectArrayList<SSTable> res = new ObjectArrayList<>();
+        String filename = null;
 
-        while (uniqueSortedIterator.hasNext()) {
-            res.add(new SSTable(getNextSstFilename(dataDir), uniqueSortedIterator, DEFAULT_SAMPLE_SIZE, sstMaxSize));
+        try {
+            while (items.hasNext()) {
+                filename = getNextSstFilename(dataDir);
+                res.add(new SSTable(filename, items.nextTable(sstMaxSize), DEFAULT_SAMPLE_SIZE, Long.MAX_VALUE,
+                                    options));
+            }
+        } catch (RuntimeException e) {
+            // neither the written tables nor the one in progress are left behind
+            res.forEach(SSTable::closeAndDelete);
+            if (filename != null)
+                deleteFiles(filename);
+            throw e;
+        } finally {
+            // iterators stopped at the end of the range still hold their channel
+            for (var it : itArray)
+                ((SSTableIterator) it).close();
         }
 
         return res;
@@ -96,77 +260,185 @@ public class SSTable implements Iterable<ByteArrayPair> {
 
     /**
      * Read an item from the SSTable.
+     * <p>
+     * The block index locates the only block that can contain the key, the block is then
+     * read, or taken from the block cache, and binary searched.
+     * Blocks are read with positional reads on a shared channel, or decoded in place
+     * when the table is memory-mapped, hence any number of threads can look up the same table concurrently.
      *
      * @param key The key of the item to read.
-     * @return The item with the given key, or null if no such item exists.
+     * @return The value of the given key, ByteArrayPair.TOMBSTONE if the key is deleted, or null if no such item exists.
      */
     public byte[] get(byte[] key) {
-        if (ByteArrayComparator.compare(key, minKey) == -1 ||
-            ByteArrayComparator.compare(key, maxKey) == 1 ||
-            !bloomFilter.mightContain(key))
-            return null;
+        return get(key, Long.MAX_VALUE);
+    }
 
-        int offsetIndex = getCandidateOffsetIndex(key);
-        long offset = sparseOffsets.getLong(offsetIndex);
-        int remaining = size - sparseSizeCount.getInt(offsetIndex);
-        is.seek(offset);
+    /**
+     * Check whether the table might hold keys with the given prefix.
+     *
+     * @param prefix A prefix, as returned by the prefix extractor the table was written with.
+     * @return False if the prefix filter excludes the prefix, true otherwise or if the table has no prefix filter.
+     */
+    public boolean mightContainPrefix(byte[] prefix) {
+        return prefixFilter == null || prefixFilter.mightContain(prefix);
+    }
 
-        int cmp = 1;
-        int searchKeyLen = key.length, readKeyLen, readValueLen;
+    /**
+     * Read the newest version of an item with a sequence number not greater than the given one.
+     *
+     * @param key      The key of the item to read.
+     * @param sequence The greatest visible sequence number.
+     * @return The value of the given key, ByteArrayPair.TOMBSTONE if the key is deleted, or null if no such item exists.
+     */
+    public byte[] get(byte[] key, long sequence) {
+        if (comparator.compare(key, minKey) < 0 ||
+            comparator.compare(key, maxKey) > 0 ||
+            !filter.mightContain(key))
+            return null;
 
-        byte[] readKey;
+        Block block = readBlock(getCandidateBlockIndex(key), channel, true);
+        int index = block.search(key, sequence);
 
-        while (cmp > 0 && remaining > 0) {
+        return index >= 0 ? block.value(index) : null;
+    }
 
-            remaining--;
-            readKeyLen = is.readVByteInt();
+    /**
+     * Read many items from the SSTable in a single forward pass.
+     * <p>
+     * Keys outside the table range or rejected by the bloom filter are skipped first, the remaining ones
+     * are then resolved in order, walking the block index forward, so that each block is read
+     * at most once and the data file is visited sequentially.
+     *
+     * @param keys The keys of the items to read, sorted.
+     * @return The value of each key, ByteArrayPair.TOMBSTONE if the key is deleted, or null if no such item exists.
+     */
+    public ObjectArrayList<byte[]> multiGet(List<byte[]> keys) {
+        return multiGet(keys, Long.MAX_VALUE);
+    }
 
-            // gone too far
-            if (readKeyLen > searchKeyLen) {
-                return null;
-            }
+    /**
+     * Read many items from the SSTable in a single forward pass, see multiGet(List).
+     *
+     * @param keys     The keys of the items to read, sorted.
+     * @param sequence The greatest visible sequence number.
+     * @return The value of each key, ByteArrayPair.TOMBSTONE if the key is deleted, or null if no such item exists.
+     */
+    public ObjectArrayList<byte[]> multiGet(List<byte[]> keys, long sequence) {
+        ObjectArrayList<byte[]> values = new ObjectArrayList<>(keys.size());
+        values.size(keys.size());
 
-            // gone too short
-            if (readKeyLen < searchKeyLen) {
-                readValueLen = is.readVByteInt();
-                is.skip(readKeyLen + readValueLen);
-                continue;
-            }
+        Block block = null;
+        int blockIndex = -1;
 
-            // read full key, compare, if equal read value
-            readValueLen = is.readVByteInt();
-            readKey = is.readNBytes(readKeyLen);
-            cmp = compare(key, readKey);
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] key = keys.get(i);
+            if (comparator.compare(key, minKey) < 0 || comparator.compare(key, maxKey) > 0 ||
+                !filter.mightContain(key))
+                continue;
 
-            if (cmp == 0) {
-                return is.readNBytes(readValueLen);
-            } else {
-                is.skip(readValueLen);
+            // the key is in the current block, or in one of the following ones
+            boolean sameBlock = blockIndex >= 0 && (blockIndex + 1 == sparseKeys.size() ||
+                                                    comparator.compare(sparseKeys.get(blockIndex + 1), key) > 0);
+            if (!sameBlock) {
+                blockIndex = getCandidateBlockIndex(key, Math.max(blockIndex, 0));
+                block = readBlock(blockIndex, channel, true);
             }
+
+            int index = block.search(key, sequence);
+            if (index >= 0)
+                values.set(i, block.value(index));
         }
 
-        return null;
+        return values;
     }
 
     /**
      * Get an iterator over the items in the SSTable.
+     * <p>
+     * The iterator reads blocks from its own channel or view of the mapping, so it can be used concurrently
+     * with lookups, and it stays valid if the table is closed. Cached blocks are reused,
+     * but iterators do not add blocks to the cache, so that compactions do not evict the hot ones.
      *
      * @return Table iterator
      */
     public Iterator<ByteArrayPair> iterator() {
-        is.seek(0);
-        return new SSTableIterator(this);
+        return new SSTableIterator(0, null);
     }
 
     /**
-     * Close the SSTable input stream.
+     * Get an iterator over the items in the SSTable, starting from the first key
+     * greater than or equal to the given one.
+     * <p>
+     * The block index is used to position the iterator on the block that can contain the key,
+     * which is then binary searched.
+     *
+     * @param from The key to start from, null to start from the first item.
+     * @return Table iterator
+     */
+    public Iterator<ByteArrayPair> iterator(byte[] from) {
+        if (from == null || comparator.compare(from, minKey) <= 0)
+            return iterator();
+
+        if (comparator.compare(from, maxKey) > 0)
+            return new SSTableIterator(sparseOffsets.size(), null);
+
+        return new SSTableIterator(getCandidateBlockIndex(from), from);
+    }
+
+    /**
+     * Get the smallest key in the table.
+     *
+     * @return The first key.
+     */
+    public byte[] minKey() {
+        return minKey;
+    }
+
+    /**
+     * Get the greatest key in the table.
+     *
+     * @return The last key.
+     */
+    public byte[] maxKey() {
+        return maxKey;
+    }
+
+    /**
+     * Get the order of the keys in the table.
+     *
+     * @return The key comparator.
+     */
+    public KeyComparator comparator() {
+        return comparator;
+    }
+
+    /**
+     * Get the greatest sequence number in the table.
+     *
+     * @return The sequence number of the newest item.
+     */
+    public long maxSequence() {
+        return maxSequence;
+    }
+
+    /**
+     * Close the SSTable data channel.
      */
     public void close() {
-        is.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public void deleteFiles() {
-        for (var extension : List.of(DATA_FILE_EXTENSION, INDEX_FILE_EXTENSION, BLOOM_FILE_EXTENSION))
+        deleteFiles(filename);
+    }
+
+    private static void deleteFiles(String filename) {
+        for (var extension : List.of(DATA_FILE_EXTENSION, INDEX_FILE_EXTENSION, BLOOM_FILE_EXTENSION,
+                                     PREFIX_BLOOM_FILE_EXTENSION))
             new File(filename + extension).delete();
     }
 
@@ -175,21 +447,129 @@ public class SSTable implements Iterable<ByteArrayPair> {
         deleteFiles();
     }
 
+    /**
+     * Take a reference to the table, it stays open until every reference is released.
+     */
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Release a reference to the table, the last one closes it and deletes its files.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0)
+            closeAndDelete();
+    }
+
+    /**
+     * Get the sequence number in a table file name, or -1 if it is not a table file.
+     *
+     * @param filename The table file name, without directory, with or without extension.
+     * @return The table number.
+     */
+    public static long getSstNumber(String filename) {
+        if (!filename.startsWith(SST_FILE_PREFIX))
+            return -1;
+
+        int end = filename.indexOf('.');
+        try {
+            return Long.parseLong(filename.substring(SST_FILE_PREFIX.length(), end == -1 ? filename.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Make sure the next table names do not collide with an existing table.
+     *
+     * @param sstNumber The number of an existing table.
+     */
+    public static void updateSstCounter(long sstNumber) {
+        SST_COUNTER.accumulateAndGet(sstNumber, Math::max);
+    }
+
+    /**
+     * Read a data block.
+     *
+     * @param index     The block index.
+     * @param source    The channel to read from on a cache miss.
+     * @param fillCache Whether a block read from disk is added to the cache.
+     * @return The block.
+     */
+    private Block readBlock(int index, FileChannel source, boolean fillCache) {
+        long offset = sparseOffsets.getLong(index);
+        long end = index + 1 < sparseOffsets.size() ? sparseOffsets.getLong(index + 1) : dataSize;
+        int length = (int) (end - offset);
+
+        // uncompressed mapped blocks are already in memory
+        if (mappedData != null && codec == Codec.NONE)
+            return new Block(mappedData.slice((int) offset, length), comparator);
+
+        BlockCache cache = options.blockCache;
+        ByteBuffer data = cache != null ? cache.get(id, index) : null;
+
+        if (data == null) {
+            ByteBuffer stored = mappedData != null
+                                ? mappedData.slice((int) offset, length)
+                                : readFully(source, offset, length);
+            data = codec.decompress(stored);
+
+            if (cache != null && fillCache)
+                cache.put(id, index, data);
+        }
+
+        return new Block(data, comparator);
+    }
+
+    private ByteBuffer readFully(FileChannel source, long offset, int length) {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        try {
+            while (data.hasRemaining()) {
+                if (source.read(data, offset + data.position()) < 0)
+                    throw new IOException("Unexpected end of file, block at " + offset + " is truncated");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read table " + filename, e);
+        }
+        return data.flip();
+    }
+
+    private void openDataFile() {
+        channel = openChannel(filename);
+
+        try {
+            dataSize = channel.size();
+
+            // a single buffer can not map more than 2GB, bigger tables fall back to positional reads
+            if (options.readMode == SSTableOptions.ReadMode.MMAP && dataSize <= Integer.MAX_VALUE)
+                mappedData = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not map table " + filename, e);
+        }
+    }
+
+    private static FileChannel openChannel(String filename) {
+        try {
+            return FileChannel.open(Path.of(filename + DATA_FILE_EXTENSION), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open table " + filename, e);
+        }
+    }
+
     private static String getNextSstFilename(String directory) {
-        return String.format("%s/sst_%d", directory, SST_COUNTER.incrementAndGet());
+        return String.format("%s/%s%d", directory, SST_FILE_PREFIX, SST_COUNTER.incrementAndGet());
     }
 
     private void initializeFromDisk(String filename) {
-        // items file
-        is = new ExtendedInputStream(filename + DATA_FILE_EXTENSION);
-
-        // sparse index
+        // block index
         sparseOffsets = new LongArrayList();
         sparseSizeCount = new IntArrayList();
         sparseKeys = new ObjectArrayList<>();
 
         ExtendedInputStream indexIs = new ExtendedInputStream(filename + INDEX_FILE_EXTENSION);
         size = indexIs.readVByteInt();
+        codec = Codec.fromId(indexIs.readVByteInt());
 
         int sparseSize = indexIs.readVByteInt();
         long offsetsCumulative = 0;
@@ -209,37 +589,60 @@ public class SSTable implements Iterable<ByteArrayPair> {
         for (int i = 0; i < sparseSize; i++)
             sparseKeys.add(indexIs.readNBytes(indexIs.readVByteInt()));
 
-        is.close();
+        minKey = sparseKeys.get(0);
+        maxKey = indexIs.readNBytes(indexIs.readVByteInt());
+        maxSequence = indexIs.readVByteLong();
+        String comparatorName = new String(indexIs.readNBytes(indexIs.readVByteInt()), StandardCharsets.UTF_8);
+
+        indexIs.close();
+
+        if (!comparatorName.equals(comparator.name()))
+            throw new IllegalArgumentException("Table " + filename + " was written with the " + comparatorName +
+                                               " comparator, not with " + comparator.name());
+
+        // items file
+        openDataFile();
 
         // bloom filter
-        bloomFilter = BloomFilter.readFromFile(filename + BLOOM_FILE_EXTENSION);
+        filter = KeyFilter.readFromFile(filename + BLOOM_FILE_EXTENSION);
+        if (new File(filename + PREFIX_BLOOM_FILE_EXTENSION).exists())
+            prefixFilter = KeyFilter.readFromFile(filename + PREFIX_BLOOM_FILE_EXTENSION);
     }
 
-    private int getCandidateOffsetIndex(byte[] key) {
-        int low = 0;
-        int high = sparseOffsets.size() - 1;
+    /**
+     * Find the last block whose first key is smaller than or equal to the given one.
+     */
+    private int getCandidateBlockIndex(byte[] key) {
+        return getCandidateBlockIndex(key, 0);
+    }
 
-        while (low < (high - 1)) {
-            int mid = (low + high) / 2;
-            int cmp = compare(key, sparseKeys.get(mid));
+    private int getCandidateBlockIndex(byte[] key, int low) {
+        int high = sparseKeys.size() - 1;
 
-            if (cmp < 0)
-                high = mid - 1;
-            else if (cmp > 0)
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (comparator.compare(sparseKeys.get(mid), key) <= 0)
                 low = mid;
             else
-                return mid;
+                high = mid - 1;
         }
         return low;
     }
 
     private void writeItems(String filename, Iterator<ByteArrayPair> items, int sampleSize, long maxByteSize) {
         ExtendedOutputStream ios = new ExtendedOutputStream(filename + DATA_FILE_EXTENSION);
+        BlockBuilder block = new BlockBuilder(options.blockSize, options.restartInterval);
+        codec = options.codec;
 
         sparseOffsets = new LongArrayList();
         sparseSizeCount = new IntArrayList();
         sparseKeys = new ObjectArrayList<>();
-        bloomFilter = new BloomFilter();
+        // key hashes are kept until the number of keys is known, the filter is then sized on it
+        LongArrayList keyHashes = new LongArrayList();
+        PrefixExtractor extractor = options.prefixExtractor;
+        LongArrayList prefixHashes = extractor == null ? null : new LongArrayList();
+        byte[] lastPrefix = null;
 
         // write items and populate indexes
         int numElements = 0;
@@ -248,26 +651,49 @@ public class SSTable implements Iterable<ByteArrayPair> {
 
         while (items.hasNext() && byteSize < maxByteSize) {
             ByteArrayPair item = items.next();
+            boolean newKey = maxKey == null || !Arrays.equals(maxKey, item.key());
+
+            // versions of a key stay in the same block, the block index then finds all of them
+            if (newKey && (block.byteSize() >= options.blockSize || block.size() >= sampleSize))
+                offset += ios.write(codec.compress(block.finish()));
 
             if (minKey == null)
                 minKey = item.key();
 
             maxKey = item.key();
 
-            if (numElements % sampleSize == 0) {
+            // the index points to the first key of each block
+            if (block.isEmpty()) {
                 sparseOffsets.add(offset);
                 sparseSizeCount.add(numElements);
                 sparseKeys.add(item.key());
             }
 
-            bloomFilter.add(item.key());
+            if (newKey) {
+                long[] hash = BloomFilter.hash(item.key());
+                keyHashes.add(hash[0]);
+                keyHashes.add(hash[1]);
+
+                byte[] prefix = extractor == null ? null : extractor.prefix(item.key());
+                if (prefix != null && !Arrays.equals(prefix, lastPrefix)) {
+                    hash = BloomFilter.hash(prefix);
+                    prefixHashes.add(hash[0]);
+                    prefixHashes.add(hash[1]);
+                    lastPrefix = prefix;
+                }
+            }
 
-            offset += ios.writeByteArrayPair(item);
+            block.add(item);
             numElements++;
+            maxSequence = Math.max(maxSequence, item.sequence());
 
             byteSize += item.size();
         }
 
+        if (!block.isEmpty())
+            offset += ios.write(codec.compress(block.finish()));
+
+        ios.sync();
         ios.close();
 
         if (numElements == 0) {
@@ -276,11 +702,18 @@ public class SSTable implements Iterable<ByteArrayPair> {
 
         this.size = numElements;
 
-        // write bloom filter and index to disk
-        bloomFilter.writeToFile(filename + BLOOM_FILE_EXTENSION);
+        // second pass over the buffered hashes, the filters are sized on the number of keys
+        filter = options.filterType.build(keyHashes, options.bitsPerKey());
+        filter.writeToFile(filename + BLOOM_FILE_EXTENSION);
+
+        if (prefixHashes != null) {
+            prefixFilter = options.filterType.build(prefixHashes, options.bitsPerKey());
+            prefixFilter.writeToFile(filename + PREFIX_BLOOM_FILE_EXTENSION);
+        }
 
         ExtendedOutputStream indexOs = new ExtendedOutputStream(filename + INDEX_FILE_EXTENSION);
         indexOs.writeVByteInt(numElements);
+        indexOs.writeVByteInt(codec.id);
 
         int sparseSize = sparseOffsets.size();
         indexOs.writeVByteInt(sparseSize);
@@ -303,29 +736,207 @@ public class SSTable implements Iterable<ByteArrayPair> {
             indexOs.write(key);
         }
 
+        indexOs.writeVByteInt(maxKey.length);
+        indexOs.write(maxKey);
+        indexOs.writeVByteLong(maxSequence);
+
+        byte[] comparatorName = comparator.name().getBytes(StandardCharsets.UTF_8);
+        indexOs.writeVByteInt(comparatorName.length);
+        indexOs.write(comparatorName);
+
+        indexOs.sync();
         indexOs.close();
     }
 
-    private static class SSTableIterator implements Iterator<ByteArrayPair> {
+    private class SSTableIterator implements Iterator<ByteArrayPair>, AutoCloseable {
 
-        private final SSTable table;
-        int remaining;
+        // own channel, null when the table is memory-mapped
+        private FileChannel source;
+        private int blockIndex;
+        private Block.Cursor cursor;
 
-        public SSTableIterator(SSTable table) {
-            this.table = table;
-            remaining = table.size;
+        SSTableIterator(int blockIndex, byte[] from) {
+            this.blockIndex = blockIndex;
+
+            if (blockIndex >= sparseOffsets.size())
+                return;
+
+            source = mappedData == null ? openChannel(filename) : null;
+            Block block = readBlock(blockIndex, source, false);
+
+            int position = 0;
+            if (from != null) {
+                position = block.search(from);
+                if (position < 0)
+                    position = -position - 1;
+            }
+
+            cursor = block.cursor(position);
+            skipExhaustedBlocks();
         }
 
         @Override
         public boolean hasNext() {
-            return remaining > 0;
+            return cursor != null;
         }
 
         @Override
         public ByteArrayPair next() {
-            remaining--;
+            if (cursor == null)
+                return null;
+
+            ByteArrayPair item = cursor.next();
+            skipExhaustedBlocks();
+
+            return item;
+        }
+
+        @Override
+        public void close() {
+            cursor = null;
+            releaseSource();
+        }
+
+        private void skipExhaustedBlocks() {
+            while (!cursor.hasNext()) {
+                if (++blockIndex == sparseOffsets.size()) {
+                    close();
+                    return;
+                }
+
+                cursor = readBlock(blockIndex, source, false).cursor(0);
+            }
+        }
+
+        private void releaseSource() {
+            if (source == null)
+                return;
+
+            try {
+                source.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            source = null;
+        }
+
+    }
+
+    /**
+     * Filters the merged items of a compaction, stopping before the end of the range.
+     * <p>
+     * Of each key, the newest version is kept, an older one only if a snapshot sees it, that is if a snapshot
+     * falls between its sequence number and the one of the next version. Tombstones are then dropped
+     * if allowed, starting from the oldest version, so that a dropped tombstone never uncovers a kept version.
+     */
+    private static class CompactionIterator {
+
+        private final Iterator<ByteArrayPair> iterator;
+        private final KeyComparator comparator;
+        private final byte[] endKey;
+        private final long[] snapshots;
+        private final boolean dropTombstones;
+
+        // retained versions of the current key, and the first version of the next one
+        private final ObjectArrayList<ByteArrayPair> versions = new ObjectArrayList<>();
+        private int position;
+        private ByteArrayPair lookahead;
+        private boolean done;
+
+        CompactionIterator(Iterator<ByteArrayPair> iterator, KeyComparator comparator, byte[] endKey,
+                           long[] snapshots, boolean dropTombstones) {
+            this.iterator = iterator;
+            this.comparator = comparator;
+            this.endKey = endKey;
+            this.snapshots = snapshots;
+            this.dropTombstones = dropTombstones;
+        }
+
+        boolean hasNext() {
+            fill();
+            return position < versions.size();
+        }
+
+        ByteArrayPair next() {
+            return hasNext() ? versions.get(position++) : null;
+        }
+
+        /**
+         * Get the items of the next output table, the table is closed once it exceeds the maximum size,
+         * but never between two versions of a key, which would then be searched in a single table.
+         *
+         * @param maxByteSize The maximum size of the table.
+         * @return An iterator over the items of the table.
+         */
+        Iterator<ByteArrayPair> nextTable(long maxByteSize) {
+            return new Iterator<>() {
+                long byteSize;
+
+                @Override
+                public boolean hasNext() {
+                    return CompactionIterator.this.hasNext() && (byteSize < maxByteSize || position > 0);
+                }
+
+                @Override
+                public ByteArrayPair next() {
+                    ByteArrayPair item = CompactionIterator.this.next();
+                    if (item != null)
+                        byteSize += item.size();
+
+                    return item;
+                }
+            };
+        }
+
+        private void fill() {
+            while (position == versions.size() && !done) {
+                versions.clear();
+                position = 0;
+
+                ByteArrayPair first = lookahead != null ? lookahead : iterator.hasNext() ? iterator.next() : null;
+                lookahead = null;
+                if (first == null || (endKey != null && comparator.compare(first.key(), endKey) >= 0)) {
+                    done = true;
+                    return;
+                }
+
+                versions.add(first);
+                while (iterator.hasNext()) {
+                    ByteArrayPair item = iterator.next();
+                    if (!Arrays.equals(item.key(), first.key())) {
+                        lookahead = item;
+                        break;
+                    }
+                    versions.add(item);
+                }
+
+                retain();
+            }
+        }
+
+        private void retain() {
+            int kept = 1;
+            long newer = versions.get(0).sequence();
+            for (int i = 1; i < versions.size(); i++) {
+                ByteArrayPair version = versions.get(i);
+                if (visible(version.sequence(), newer))
+                    versions.set(kept++, version);
+
+                newer = version.sequence();
+            }
+            versions.size(kept);
+
+            // nothing older is left, a tombstone at the bottom shadows nothing
+            while (dropTombstones && !versions.isEmpty() && versions.top().isTombstone())
+                versions.pop();
+        }
+
+        private boolean visible(long sequence, long newer) {
+            int index = Arrays.binarySearch(snapshots, sequence);
+            if (index < 0)
+                index = -index - 1;
 
-            return table.is.readBytePair();
+            return index < snapshots.length && snapshots[index] < newer;
         }
 
     }
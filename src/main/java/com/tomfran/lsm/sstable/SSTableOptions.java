@@ -0,0 +1,190 @@
+package com.tomfran.lsm.sstable;
+
+import com.tomfran.lsm.bloom.FilterType;
+import com.tomfran.lsm.comparator.KeyComparator;
+
+/**
+ * Configuration of an SSTable.
+ * <p>
+ * Every option starts from a default value, setters can be chained to override them.
+ */
+public class SSTableOptions {
+
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+    static final int DEFAULT_RESTART_INTERVAL = 16;
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    ReadMode readMode = ReadMode.POSITIONAL;
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    int restartInterval = DEFAULT_RESTART_INTERVAL;
+    BlockCache blockCache;
+    Codec codec = Codec.NONE;
+    FilterType filterType = FilterType.BLOCKED_BLOOM;
+    double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+    // zero to size the filter for the false positive rate
+    double bloomBitsPerKey;
+    PrefixExtractor prefixExtractor;
+    KeyComparator comparator = KeyComparator.LEXICOGRAPHIC;
+
+    /**
+     * Set how the data file is accessed.
+     *
+     * @param readMode The read mode.
+     * @return This options instance.
+     */
+    public SSTableOptions readMode(ReadMode readMode) {
+        this.readMode = readMode;
+        return this;
+    }
+
+    /**
+     * Set the target size of data blocks, a block is closed as soon as it reaches this size.
+     *
+     * @param blockSize The size in bytes.
+     * @return This options instance.
+     */
+    public SSTableOptions blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Set the number of items between two restart points of a data block, where keys are written in full.
+     * <p>
+     * Other keys only store the suffix they do not share with the previous one. Longer intervals save more space,
+     * shorter ones make lookups scan fewer items after the binary search on the restart points.
+     *
+     * @param restartInterval The number of items, one writes every key in full.
+     * @return This options instance.
+     */
+    public SSTableOptions restartInterval(int restartInterval) {
+        if (restartInterval < 1)
+            throw new IllegalArgumentException("Restart interval must be positive");
+
+        this.restartInterval = restartInterval;
+        return this;
+    }
+
+    /**
+     * Set the cache of data blocks, shared with other tables, null to disable caching.
+     * <p>
+     * Memory-mapped tables do not use the cache, as their blocks are already served from memory.
+     *
+     * @param blockCache The block cache.
+     * @return This options instance.
+     */
+    public SSTableOptions blockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+        return this;
+    }
+
+    /**
+     * Set the compression codec of data blocks, used when the table is written.
+     * <p>
+     * Tables read from disk use the codec recorded in their index.
+     *
+     * @param codec The block codec.
+     * @return This options instance.
+     */
+    public SSTableOptions codec(Codec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Set the type of key filter of new tables, a blocked Bloom filter by default.
+     * <p>
+     * Tables read from disk use the filter recorded in their bloom file.
+     *
+     * @param filterType The filter type.
+     * @return This options instance.
+     */
+    public SSTableOptions filterType(FilterType filterType) {
+        this.filterType = filterType;
+        return this;
+    }
+
+    /**
+     * Set the false positive rate of the filters of new tables, 0.1% by default.
+     * <p>
+     * Each filter type gets the bits per key it needs for this rate, see {@link FilterType#bitsPerKey(double)}:
+     * at 0.1%, about 14.4 for a Bloom filter, 21.6 for a blocked one and 12.3 for an xor filter.
+     *
+     * @param falsePositiveRate The rate, between 0 and 1 excluded.
+     * @return This options instance.
+     */
+    public SSTableOptions falsePositiveRate(double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+
+        this.falsePositiveRate = falsePositiveRate;
+        return this;
+    }
+
+    /**
+     * Set the number of filter bits per distinct key of new tables, overriding the false positive rate,
+     * the filter is sized on the number of keys actually written.
+     * <p>
+     * With a Bloom filter, ten bits give about 1% false positives, each extra bit cuts the rate by about a half,
+     * a blocked filter needs about 40% more bits for the same rate.
+     * An xor filter spends them on fingerprints of bitsPerKey / 1.23 bits, ten bits give about 0.4%.
+     *
+     * @param bloomBitsPerKey The number of bits per key.
+     * @return This options instance.
+     */
+    public SSTableOptions bloomBitsPerKey(double bloomBitsPerKey) {
+        if (bloomBitsPerKey <= 0)
+            throw new IllegalArgumentException("Bits per key must be positive");
+
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        return this;
+    }
+
+    /**
+     * Get the filter bits per key of new tables, from the false positive rate unless set explicitly.
+     */
+    double bitsPerKey() {
+        return bloomBitsPerKey > 0 ? bloomBitsPerKey : filterType.bitsPerKey(falsePositiveRate);
+    }
+
+    /**
+     * Set the extractor of the key prefixes indexed by a second Bloom filter, null to write no prefix filter.
+     * <p>
+     * The prefix filter uses the same bits per key, counted on the distinct prefixes.
+     *
+     * @param prefixExtractor The prefix extractor.
+     * @return This options instance.
+     */
+    public SSTableOptions prefixExtractor(PrefixExtractor prefixExtractor) {
+        this.prefixExtractor = prefixExtractor;
+        return this;
+    }
+
+    /**
+     * Set the order of the keys, unsigned lexicographic by default.
+     * <p>
+     * The comparator name is recorded in the index, a table can only be read back with the same comparator.
+     *
+     * @param comparator The key comparator.
+     * @return This options instance.
+     */
+    public SSTableOptions comparator(KeyComparator comparator) {
+        this.comparator = comparator;
+        return this;
+    }
+
+    /**
+     * How an SSTable reads its data file.
+     * <ul>
+     *     <li>POSITIONAL: positional reads on a file channel, each lookup copies the bytes it needs
+     *     into a buffer;</li>
+     *     <li>MMAP: the file is memory-mapped and decoded in place, lookups do not perform system calls,
+     *     best suited when the tables fit in the page cache.</li>
+     * </ul>
+     */
+    public enum ReadMode {
+        POSITIONAL,
+        MMAP
+    }
+
+}
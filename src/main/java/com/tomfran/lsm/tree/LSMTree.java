@@ -1,54 +1,117 @@
 package com.tomfran.lsm.tree;
 
+import com.tomfran.lsm.compaction.Compaction;
+import com.tomfran.lsm.compaction.CompactionStrategy;
+import com.tomfran.lsm.compaction.LeveledCompactionStrategy;
+import com.tomfran.lsm.comparator.KeyComparator;
 import com.tomfran.lsm.memtable.Memtable;
+import com.tomfran.lsm.sstable.BlockCache;
+import com.tomfran.lsm.sstable.Codec;
 import com.tomfran.lsm.sstable.SSTable;
+import com.tomfran.lsm.sstable.SSTableOptions;
 import com.tomfran.lsm.types.ByteArrayPair;
+import com.tomfran.lsm.wal.WriteAheadLog;
+import com.tomfran.lsm.tree.LSMTreeOptions.OpenMode;
+import com.tomfran.lsm.wal.WriteAheadLog.SyncMode;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 
-import javax.management.relation.RoleUnresolvedList;
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 /**
  * LSM Tree implementation.
  * <p>
- * Writes are added to the Memtable, which is flushed when a certain size is reached.
+ * Writes are appended to a write-ahead log segment and added to the Memtable,
+ * which is flushed when a certain size is reached. Once flushed, the segment is deleted.
  * SSTables are divided in levels, each level storing bigger tables.
  * <p>
- * When flushed, a Memtable becomes an SSTable at level 1, when the level exceeds
- * a threshold, all its tables are merged and added to the next level.
+ * When flushed, a Memtable becomes an SSTable at level 0, a CompactionStrategy then decides
+ * which tables are merged and in which level the result goes, leveled compaction by default.
  * <p>
- * Background executors take care of flushing and compaction.
+ * Levels are published as immutable versions, readers never wait for flushes and compactions,
+ * which build their tables on the side and then swap the current version.
+ * <p>
+ * Every write gets a sequence number, and older versions of a key are kept as long as a snapshot sees them,
+ * hence reads taking a snapshot see the tree as it was when the snapshot was taken.
+ * <p>
+ * Background executors take care of flushing and compaction, a flush starts as soon
+ * as a memtable is full, and several memtables can be flushed in parallel.
  */
 public class LSMTree {
 
     static final long DEFAULT_MEMTABLE_MAX_BYTE_SIZE = 1024 * 1024 * 32;
     static final int DEFAULT_LEVEL_ZERO_MAX_SIZE = 2;
-    static final double LEVEL_INCR_FACTOR = 1.75;
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+    static final long DEFAULT_BLOCK_CACHE_BYTE_SIZE = 1024 * 1024 * 64;
+    static final int DEFAULT_STALL_SOFT_LIMIT = 4;
+    static final int DEFAULT_STALL_HARD_LIMIT = 8;
+    static final int DEFAULT_FLUSH_THREADS = 2;
+    static final long STALL_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static final int PUBLISH_SPINS = 100;
+    static final int MAX_FLUSH_ATTEMPTS = 3;
+    static final long FLUSH_RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
     static final String DEFAULT_DATA_DIRECTORY = "LSM-data";
 
-    final Object mutableMemtableLock = new Object();
-    final Object immutableMemtablesLock = new Object();
-    final Object tableLock = new Object();
+    // writers share the read lock, memtable rotation takes the write lock
+    final ReentrantReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    // orders sequence numbers and log appends the same way, memtable inserts stay concurrent
+    final ReentrantLock appendLock = new ReentrantLock();
+    // serializes version installs, readers do not take it
+    final ReentrantLock versionLock = new ReentrantLock();
+    // stopped writers wait for a flush on this condition
+    final ReentrantLock stallLock = new ReentrantLock();
+    final Condition memtableFlushed = stallLock.newCondition();
+    final WriteStallMetrics stallMetrics = new WriteStallMetrics();
+    // tables of flushed memtables waiting for older flushes, guarded by the version lock
+    final Reference2ObjectOpenHashMap<Memtable, SSTable> flushedTables = new Reference2ObjectOpenHashMap<>();
+
+    // last sequence number taken by a writer, and last one whose write, and all the previous ones, completed
+    final AtomicLong lastSequence = new AtomicLong();
+    final AtomicLong visibleSequence = new AtomicLong();
+    final ObjectArrayList<Snapshot> snapshots = new ObjectArrayList<>();
+    // first flush that failed for good, writes are refused from then on
+    volatile RuntimeException flushFailure;
 
     final long mutableMemtableMaxSize;
-    final int maxLevelZeroSstNumber;
-    final long maxLevelZeroSstByteSize;
     final String dataDir;
+    final SyncMode syncMode;
+    final LSMTreeOptions options;
+    final KeyComparator comparator;
+    final BlockCache blockCache;
+    final CompactionStrategy compactionStrategy;
 
-    Memtable mutableMemtable;
-    LinkedList<Memtable> immutableMemtables;
-    ObjectArrayList<ObjectArrayList<SSTable>> levels;
+    volatile Memtable mutableMemtable;
+    ConcurrentLinkedDeque<Memtable> immutableMemtables;
+    volatile Version version;
 
-    ScheduledExecutorService memtableFlusher;
+    ExecutorService memtableFlusher;
     ScheduledExecutorService tableCompactor;
+    ForkJoinPool subcompactionPool;
 
     /**
      * Creates a new LSMTree with a default memtable size and data directory.
@@ -61,159 +124,885 @@ public class LSMTree {
      * Creates a new LSMTree with a memtable size and data directory.
      *
      * @param mutableMemtableMaxByteSize The maximum size of the memtable before it is flushed to disk.
+     * @param maxLevelZeroSstNumber      The maximum number of tables in level zero before it is compacted.
      * @param dataDir                    The directory to store the data in.
      */
     public LSMTree(long mutableMemtableMaxByteSize, int maxLevelZeroSstNumber, String dataDir) {
-        this.mutableMemtableMaxSize = mutableMemtableMaxByteSize;
-        this.maxLevelZeroSstNumber = maxLevelZeroSstNumber;
-        this.maxLevelZeroSstByteSize = mutableMemtableMaxByteSize * 2;
+        this(dataDir, new LSMTreeOptions().memtableMaxByteSize(mutableMemtableMaxByteSize)
+                                          .levelZeroMaxSize(maxLevelZeroSstNumber));
+    }
+
+    /**
+     * Creates a new LSMTree in a data directory, with the given options.
+     *
+     * @param dataDir The directory to store the data in.
+     * @param options The tree configuration.
+     */
+    public LSMTree(String dataDir, LSMTreeOptions options) {
+        this.mutableMemtableMaxSize = options.memtableMaxByteSize;
+        this.compactionStrategy = options.compactionStrategy != null
+                                  ? options.compactionStrategy
+                                  : new LeveledCompactionStrategy(options.levelZeroMaxSize, options.memtableMaxByteSize * 2);
+        this.syncMode = options.syncMode;
+        this.blockCache = options.blockCacheByteSize > 0 ? new BlockCache(options.blockCacheByteSize) : null;
+        this.options = options;
+        this.comparator = options.comparator;
         this.dataDir = dataDir;
-        createDataDir();
 
-        mutableMemtable = new Memtable();
-        immutableMemtables = new LinkedList<>();
-        levels = new ObjectArrayList<>();
-        levels.add(new ObjectArrayList<>());
+        immutableMemtables = new ConcurrentLinkedDeque<>();
 
-        memtableFlusher = newSingleThreadScheduledExecutor();
-        memtableFlusher.scheduleAtFixedRate(this::flushMemtable, 50, 50, TimeUnit.MILLISECONDS);
+        if (Files.isDirectory(Path.of(dataDir)) && options.openMode != OpenMode.CREATE) {
+            recover();
+        } else if (options.openMode != OpenMode.OPEN) {
+            createDataDir();
+            ObjectArrayList<ObjectArrayList<SSTable>> levels = new ObjectArrayList<>();
+            levels.add(new ObjectArrayList<>());
+            version = new Version(levels);
+        } else {
+            throw new IllegalArgumentException("Data directory " + dataDir + " does not exist");
+        }
 
+        mutableMemtable = new Memtable(new WriteAheadLog(dataDir, syncMode), comparator, options.memtableStorage);
+
+        // flushes are submitted on rotation, recovered memtables are flushed right away, the oldest first
+        memtableFlusher = newFixedThreadPool(options.flushThreads);
+        immutableMemtables.descendingIterator().forEachRemaining(this::scheduleFlush);
+
+        subcompactionPool = new ForkJoinPool(options.subcompactions);
         tableCompactor = newSingleThreadScheduledExecutor();
-        tableCompactor.scheduleAtFixedRate(this::levelCompaction, 200, 200, TimeUnit.MILLISECONDS);
+        tableCompactor.scheduleAtFixedRate(this::compaction, 200, 200, TimeUnit.MILLISECONDS);
     }
 
 
     /**
      * Adds an item to the LSMTree.
-     * If the memtable is full, it is flushed to disk.
+     * The item is logged before being added to the memtable, if the memtable is full, it is flushed to disk.
      *
      * @param item The item to add.
      */
     public void add(ByteArrayPair item) {
-        synchronized (mutableMemtableLock) {
-            mutableMemtable.add(item);
-            checkMemtableSize();
-        }
+        write(List.of(item));
+    }
+
+    /**
+     * Applies a batch of writes to the LSMTree.
+     * <p>
+     * The batch is logged as a single record and inserted in the memtable in one pass, under a single lock
+     * acquisition and with a single size check, so all its writes land in the same memtable.
+     *
+     * @param batch The writes to apply.
+     */
+    public void write(WriteBatch batch) {
+        if (!batch.isEmpty())
+            write(batch.entries);
     }
 
     /**
      * Removes an item from the LSMTree.
-     * This is done by adding a tombstone to the memtable.
+     * This is done by logging and adding a tombstone to the memtable.
      *
      * @param key The key of the item to remove.
      */
     public void delete(byte[] key) {
-        synchronized (mutableMemtableLock) {
-            mutableMemtable.remove(key);
-            checkMemtableSize();
-        }
+        write(List.of(ByteArrayPair.tombstone(key)));
     }
 
     /**
      * Gets an item from the LSMTree.
+     * <p>
+     * The search stops at the most recent version of the key, a tombstone means the key was deleted.
      *
      * @param key The key of the item to get.
      * @return The value of the item, or null if it does not exist.
      */
     public byte[] get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets an item from the LSMTree, as it was when the snapshot was taken.
+     *
+     * @param key      The key of the item to get.
+     * @param snapshot The snapshot to read.
+     * @return The value of the item, or null if it did not exist.
+     */
+    public byte[] get(byte[] key, Snapshot snapshot) {
+        return get(key, snapshot.sequence);
+    }
+
+    private byte[] get(byte[] key, long sequence) {
         byte[] result;
 
-        synchronized (mutableMemtableLock) {
-            if ((result = mutableMemtable.get(key)) != null)
-                return result;
+        // memtables are read without locking
+        if ((result = mutableMemtable.get(key, sequence)) != null)
+            return live(result);
+
+        for (Memtable memtable : immutableMemtables)
+            if ((result = memtable.get(key, sequence)) != null)
+                return live(result);
+
+        // the version keeps its tables open, even if a compaction replaces them meanwhile
+        Version current = acquireVersion();
+        try {
+            ObjectArrayList<ObjectArrayList<SSTable>> levels = current.levels;
+
+            for (int i = 0; i < levels.size(); i++) {
+                if (compactionStrategy.isSorted(i)) {
+                    // disjoint ranges, at most one table of the level can hold the key
+                    SSTable table = findTable(levels.get(i), key);
+                    if (table != null && (result = table.get(key, sequence)) != null)
+                        return live(result);
+                } else {
+                    // overlapping tables, from the newest to the oldest
+                    for (SSTable table : levels.get(i))
+                        if ((result = table.get(key, sequence)) != null)
+                            return live(result);
+                }
+            }
+        } finally {
+            current.release();
+        }
+
+        return null;
+    }
+
+    private static byte[] live(byte[] value) {
+        return value == ByteArrayPair.TOMBSTONE ? null : value;
+    }
+
+    /**
+     * Gets many items from the LSMTree.
+     * <p>
+     * Keys are sorted and searched in the memtables first. The remaining ones are looked up on a single version,
+     * level by level as in get, but each table is visited once with all the pending keys in its range,
+     * which are filtered and resolved in a single forward pass over the table.
+     *
+     * @param keys The keys of the items to get.
+     * @return The values, in the order of the keys, null for the items that do not exist.
+     */
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        return multiGet(keys, Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets many items from the LSMTree, as they were when the snapshot was taken.
+     *
+     * @param keys     The keys of the items to get.
+     * @param snapshot The snapshot to read.
+     * @return The values, in the order of the keys, null for the items that did not exist.
+     */
+    public List<byte[]> multiGet(List<byte[]> keys, Snapshot snapshot) {
+        return multiGet(keys, snapshot.sequence);
+    }
+
+    private List<byte[]> multiGet(List<byte[]> keys, long sequence) {
+        ObjectArrayList<byte[]> values = new ObjectArrayList<>(keys.size());
+        values.size(keys.size());
+
+        int[] order = IntStream.range(0, keys.size()).toArray();
+        IntArrays.quickSort(order, (a, b) -> comparator.compare(keys.get(a), keys.get(b)));
+
+        // positions of the unresolved keys, in key order
+        IntArrayList pending = new IntArrayList(order.length);
+
+        for (int position : order) {
+            byte[] key = keys.get(position);
+            byte[] value = mutableMemtable.get(key, sequence);
+
+            for (Iterator<Memtable> it = immutableMemtables.iterator(); value == null && it.hasNext(); )
+                value = it.next().get(key, sequence);
+
+            if (value == null)
+                pending.add(position);
+            else
+                values.set(position, live(value));
         }
 
-        synchronized (immutableMemtablesLock) {
-            for (Memtable memtable : immutableMemtables)
-                if ((result = memtable.get(key)) != null)
-                    return result;
+        Version current = acquireVersion();
+        try {
+            // the order of get, so that the most recent version of each key is found first
+            for (ObjectArrayList<SSTable> level : current.levels)
+                for (int i = 0; i < level.size() && !pending.isEmpty(); i++)
+                    pending = multiGet(level.get(i), keys, sequence, pending, values);
+        } finally {
+            current.release();
         }
 
-        synchronized (tableLock) {
-            for (ObjectArrayList<SSTable> level : levels)
+        return values;
+    }
+
+    /**
+     * Look up the pending keys in the range of a table.
+     *
+     * @return The keys still pending, in key order.
+     */
+    private IntArrayList multiGet(SSTable table, List<byte[]> keys, long sequence, IntArrayList pending,
+                                         ObjectArrayList<byte[]> values) {
+        // first pending key not below the table range
+        int from = 0, high = pending.size();
+        while (from < high) {
+            int mid = (from + high) >>> 1;
+            if (comparator.compare(keys.get(pending.getInt(mid)), table.minKey()) < 0)
+                from = mid + 1;
+            else
+                high = mid;
+        }
+
+        int to = from;
+        while (to < pending.size() && comparator.compare(keys.get(pending.getInt(to)), table.maxKey()) <= 0)
+            to++;
+
+        if (from == to)
+            return pending;
+
+        ObjectArrayList<byte[]> batch = new ObjectArrayList<>(to - from);
+        for (int i = from; i < to; i++)
+            batch.add(keys.get(pending.getInt(i)));
+
+        ObjectArrayList<byte[]> found = table.multiGet(batch, sequence);
+
+        IntArrayList remaining = new IntArrayList(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            int position = pending.getInt(i);
+            byte[] value = i >= from && i < to ? found.get(i - from) : null;
+
+            if (value == null)
+                remaining.add(position);
+            else
+                values.set(position, live(value));
+        }
+
+        return remaining;
+    }
+
+    /**
+     * Iterates over the items with a key in a range, in key order.
+     * <p>
+     * Memtables and tables of every level are merged, the most recent version of each key
+     * is returned and deleted keys are skipped. Writes completing after the scan starts are not seen.
+     * The iterator should be closed if it is abandoned before reaching the end of the range.
+     *
+     * @param startKey The inclusive start of the range, null to start from the smallest key.
+     * @param endKey   The exclusive end of the range, null to reach the greatest key.
+     * @return An iterator over the range.
+     */
+    public LSMTreeIterator scan(byte[] startKey, byte[] endKey) {
+        return scan(startKey, endKey, null, visibleSequence.get());
+    }
+
+    /**
+     * Iterates over the items with a key in a range, as they were when the snapshot was taken.
+     *
+     * @param startKey The inclusive start of the range, null to start from the smallest key.
+     * @param endKey   The exclusive end of the range, null to reach the greatest key.
+     * @param snapshot The snapshot to read.
+     * @return An iterator over the range.
+     */
+    public LSMTreeIterator scan(byte[] startKey, byte[] endKey, Snapshot snapshot) {
+        return scan(startKey, endKey, null, snapshot.sequence);
+    }
+
+    /**
+     * Iterates over the items with a key starting with the given prefix, in key order.
+     * <p>
+     * When the tree has a prefix extractor and the prefix has a prefix of its own, tables whose prefix
+     * filter excludes it are skipped. When the comparator keeps the keys of a prefix contiguous, as the
+     * lexicographic one does, the scan stops at the end of the prefix range, otherwise the merge goes on
+     * to the end of the remaining tables, returning only matching keys.
+     *
+     * @param prefix The key prefix.
+     * @return An iterator over the keys with the prefix.
+     */
+    public LSMTreeIterator scanPrefix(byte[] prefix) {
+        return scan(prefix, comparator.prefixEnd(prefix), prefix, visibleSequence.get());
+    }
+
+    /**
+     * Iterates over the items with a key starting with the given prefix, as they were when the snapshot was taken.
+     *
+     * @param prefix   The key prefix.
+     * @param snapshot The snapshot to read.
+     * @return An iterator over the keys with the prefix.
+     */
+    public LSMTreeIterator scanPrefix(byte[] prefix, Snapshot snapshot) {
+        return scan(prefix, comparator.prefixEnd(prefix), prefix, snapshot.sequence);
+    }
+
+    private LSMTreeIterator scan(byte[] startKey, byte[] endKey, byte[] prefix, long sequence) {
+        // the prefix filters can only be tested with a prefix in the extractor domain
+        byte[] filterPrefix = prefix == null || options.prefixExtractor == null
+                              ? null : options.prefixExtractor.prefix(prefix);
+
+        ObjectArrayList<Iterator<ByteArrayPair>> sources = new ObjectArrayList<>();
+
+        // sources are collected from the newest to the oldest
+        sources.add(mutableMemtable.iterator(startKey));
+
+        for (Memtable memtable : immutableMemtables)
+            sources.add(memtable.iterator(startKey));
+
+        // table iterators read from their own channel, they outlive the version
+        Version current = acquireVersion();
+        try {
+            for (ObjectArrayList<SSTable> level : current.levels)
                 for (SSTable table : level)
-                    if ((result = table.get(key)) != null)
-                        return result;
+                    if (inRange(table, startKey, endKey) &&
+                        (filterPrefix == null || table.mightContainPrefix(filterPrefix)))
+                        sources.add(table.iterator(startKey));
+        } finally {
+            current.release();
         }
 
-        return null;
+        return new LSMTreeIterator(comparator, endKey, prefix, sequence, sources);
+    }
+
+    private boolean inRange(SSTable table, byte[] startKey, byte[] endKey) {
+        return (startKey == null || comparator.compare(table.maxKey(), startKey) >= 0) &&
+               (endKey == null || comparator.compare(table.minKey(), endKey) < 0);
     }
 
     /**
-     * Stop the background threads.
+     * Iterates over the items with a key greater than or equal to the given one, in key order.
+     *
+     * @param key The key to start from.
+     * @return An iterator over the items starting from key.
+     */
+    public LSMTreeIterator seek(byte[] key) {
+        return scan(key, null);
+    }
+
+    /**
+     * Take a snapshot of the tree, reads taking it see the writes completed so far.
+     * <p>
+     * Compactions keep the versions seen by a live snapshot, the snapshot must then be released.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot getSnapshot() {
+        synchronized (snapshots) {
+            Snapshot snapshot = new Snapshot(visibleSequence.get());
+            snapshots.add(snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Release a snapshot, the versions only it sees can then be dropped by compactions.
+     *
+     * @param snapshot The snapshot to release.
+     */
+    public void releaseSnapshot(Snapshot snapshot) {
+        synchronized (snapshots) {
+            snapshots.remove(snapshot);
+        }
+    }
+
+    /**
+     * Get the sequence numbers of the live snapshots, sorted.
+     */
+    private long[] snapshotSequences() {
+        synchronized (snapshots) {
+            return snapshots.stream().mapToLong(Snapshot::sequence).sorted().toArray();
+        }
+    }
+
+    /**
+     * Stop the background threads and close the write-ahead log segments.
+     * <p>
+     * Memtables that were not flushed yet can be recovered from their segments.
      */
     public void stop() {
-        memtableFlusher.shutdownNow();
-        tableCompactor.shutdownNow();
+        // let running flushes and compactions complete, so that the manifest is consistent
+        memtableFlusher.shutdown();
+        tableCompactor.shutdown();
+        try {
+            memtableFlusher.awaitTermination(1, TimeUnit.MINUTES);
+            tableCompactor.awaitTermination(1, TimeUnit.MINUTES);
+            subcompactionPool.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        memtableLock.writeLock().lock();
+        try {
+            mutableMemtable.log().close();
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+
+        immutableMemtables.forEach(m -> m.log().close());
+
+        if (flushFailure != null)
+            throw new IllegalStateException("Memtable flush failed, unflushed writes are kept in the log", flushFailure);
+    }
+
+    /**
+     * Get the counters of the writes stalled by pending flushes.
+     *
+     * @return The write stall metrics.
+     */
+    public WriteStallMetrics stallMetrics() {
+        return stallMetrics;
+    }
+
+    private void write(List<ByteArrayPair> entries) {
+        WriteAheadLog log;
+        long ticket;
+
+        stallIfNeeded();
+        checkFlushFailure();
+
+        // concurrent writers insert in the memtable in parallel, the lock only excludes rotation
+        memtableLock.readLock().lock();
+        try {
+            Memtable memtable = mutableMemtable;
+            log = memtable.log();
+
+            ObjectArrayList<ByteArrayPair> stamped = new ObjectArrayList<>(entries.size());
+            long first;
+
+            // sequence numbers grow along the log, so a replay rebuilds the same versions in the same order,
+            // and a torn log tail only loses the newest writes
+            appendLock.lock();
+            try {
+                first = lastSequence.getAndAdd(entries.size()) + 1;
+                for (int i = 0; i < entries.size(); i++)
+                    stamped.add(entries.get(i).withSequence(first + i));
+
+                try {
+                    ticket = log.append(stamped);
+                } catch (RuntimeException e) {
+                    publish(first, first + entries.size() - 1);
+                    throw e;
+                }
+            } finally {
+                appendLock.unlock();
+            }
+
+            try {
+                memtable.addAll(stamped);
+            } finally {
+                publish(first, first + entries.size() - 1);
+            }
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+
+        checkMemtableSize();
+
+        // wait for durability outside the lock, so that concurrent writers share the same sync
+        log.sync(ticket);
+    }
+
+    /**
+     * Make a range of sequence numbers visible to new reads and snapshots.
+     * <p>
+     * Ranges are published in allocation order, so that a snapshot never sees a write
+     * while missing an older one still in progress. The wait spins briefly, then yields,
+     * as the writer it waits on may need the core to finish.
+     */
+    private void publish(long first, long last) {
+        for (int spins = 0; visibleSequence.get() != first - 1; spins++) {
+            if (spins < PUBLISH_SPINS)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+
+        visibleSequence.set(last);
+    }
+
+    /**
+     * Hold the calling writer back when immutable memtables pile up.
+     * <p>
+     * Past the soft limit the writer sleeps for a delay growing with the number of pending memtables,
+     * which slows the write rate down to the flush rate, at the hard limit it waits for a flush.
+     */
+    private void stallIfNeeded() {
+        int pending = immutableMemtables.size();
+        if (pending < options.stallSoftLimit)
+            return;
+
+        long start = System.nanoTime();
+
+        if (pending < options.stallHardLimit) {
+            LockSupport.parkNanos(STALL_DELAY_NANOS * (pending - options.stallSoftLimit + 1));
+
+            stallMetrics.delayedWrites.increment();
+            stallMetrics.delayNanos.add(System.nanoTime() - start);
+            return;
+        }
+
+        stallLock.lock();
+        try {
+            // the timeout guards against a flush completing between the check and the wait
+            while (immutableMemtables.size() >= options.stallHardLimit && flushFailure == null)
+                memtableFlushed.await(10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stallLock.unlock();
+        }
+
+        stallMetrics.stoppedWrites.increment();
+        stallMetrics.stopNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Refuse writes once a flush failed: its memtable can not leave the queue, which would otherwise
+     * fill up and stop every writer.
+     */
+    private void checkFlushFailure() {
+        if (flushFailure != null)
+            throw new IllegalStateException("Memtable flush failed, the tree does not accept writes", flushFailure);
     }
 
     private void checkMemtableSize() {
         if (mutableMemtable.byteSize() <= mutableMemtableMaxSize)
             return;
 
-        synchronized (immutableMemtablesLock) {
-            immutableMemtables.addFirst(mutableMemtable);
-            mutableMemtable = new Memtable();
+        Memtable full;
+        memtableLock.writeLock().lock();
+        try {
+            // another writer may have rotated it already
+            if (mutableMemtable.byteSize() <= mutableMemtableMaxSize)
+                return;
+
+            full = mutableMemtable;
+            immutableMemtables.addFirst(full);
+            mutableMemtable = new Memtable(new WriteAheadLog(dataDir, syncMode), comparator, options.memtableStorage);
+        } finally {
+            memtableLock.writeLock().unlock();
         }
+
+        scheduleFlush(full);
     }
 
-    private void flushMemtable() {
-        Memtable memtableToFlush;
-        synchronized (immutableMemtablesLock) {
-            if (immutableMemtables.isEmpty())
-                return;
+    private void scheduleFlush(Memtable memtable) {
+        memtableFlusher.execute(() -> flushMemtable(memtable));
+    }
+
+    /**
+     * Get the options of the tables written to a level.
+     */
+    private SSTableOptions tableOptions(int level) {
+        SSTableOptions tableOptions = new SSTableOptions().readMode(options.readMode)
+                                                          .blockSize(options.blockSize)
+                                                          .blockCache(blockCache)
+                                                          .codec(codecOf(level))
+                                                          .prefixExtractor(options.prefixExtractor)
+                                                          .filterType(options.filterType)
+                                                          .comparator(comparator);
+
+        // without explicit bits per key, filters are sized for the default false positive rate of their type
+        double[] bitsPerKey = options.levelBloomBitsPerKey;
+        if (bitsPerKey != null)
+            tableOptions.bloomBitsPerKey(bitsPerKey[Math.min(level, bitsPerKey.length - 1)]);
+
+        return tableOptions;
+    }
 
-            memtableToFlush = immutableMemtables.getLast();
+    private Codec codecOf(int level) {
+        Codec[] codecs = options.levelCodecs;
+        return codecs[Math.min(level, codecs.length - 1)];
+    }
+
+    /**
+     * Write a memtable to a level zero table.
+     * <p>
+     * Memtables are flushed in parallel, but their tables must enter level zero from the oldest to the newest,
+     * so a completed table waits until the flushes of all the older memtables are done, and the last
+     * of them installs every ready table at once.
+     *
+     * @param memtable The immutable memtable to flush.
+     */
+    private void flushMemtable(Memtable memtable) {
+        SSTable table = null;
+        for (int attempt = 1; table == null; attempt++) {
+            try {
+                table = writeTable(memtable);
+            } catch (RuntimeException e) {
+                // the memtable stays in its log segment, the tree refuses writes and stop() reports the cause
+                if (attempt == MAX_FLUSH_ATTEMPTS) {
+                    flushFailed(e);
+                    return;
+                }
+                LockSupport.parkNanos(FLUSH_RETRY_DELAY_NANOS * attempt);
+            }
         }
 
-        SSTable table = new SSTable(dataDir, memtableToFlush.iterator(), mutableMemtableMaxSize * 2);
+        ObjectArrayList<Memtable> installed = new ObjectArrayList<>();
+
+        versionLock.lock();
+        try {
+            flushedTables.put(memtable, table);
+
+            ObjectArrayList<ObjectArrayList<SSTable>> levels = version.copyLevels();
+            for (Iterator<Memtable> it = immutableMemtables.descendingIterator(); it.hasNext(); ) {
+                Memtable oldest = it.next();
+                SSTable flushed = flushedTables.remove(oldest);
+                if (flushed == null)
+                    break;
+
+                levels.get(0).add(0, flushed);
+                installed.add(oldest);
+            }
+
+            if (installed.isEmpty())
+                return;
+
+            installVersion(levels);
 
-        synchronized (tableLock) {
-            levels.get(0).add(0, table);
+            // the tables are visible, readers can stop searching the memtables
+            for (int i = 0; i < installed.size(); i++)
+                immutableMemtables.removeLast();
+        } finally {
+            versionLock.unlock();
         }
 
-        synchronized (immutableMemtablesLock) {
-            immutableMemtables.removeLast();
+        stallLock.lock();
+        try {
+            memtableFlushed.signalAll();
+        } finally {
+            stallLock.unlock();
         }
+
+        // the tables are on disk, the segments are not needed anymore
+        installed.forEach(m -> m.log().closeAndDelete());
     }
 
-    private void levelCompaction() {
-        synchronized (tableLock) {
-            int n = levels.size();
+    /**
+     * Write the level zero table of a memtable.
+     */
+    SSTable writeTable(Memtable memtable) {
+        // no size limit, a batch can take a memtable well past its maximum size, and it must fit a single table
+        return new SSTable(dataDir, memtable.iterator(), Long.MAX_VALUE, tableOptions(0));
+    }
 
-            int maxLevelSize = maxLevelZeroSstNumber;
-            long sstMaxSize = maxLevelZeroSstByteSize;
+    private void flushFailed(RuntimeException cause) {
+        if (flushFailure == null)
+            flushFailure = cause;
 
-            for (int i = 0; i < n; i++) {
-                ObjectArrayList<SSTable> level = levels.get(i);
+        // stopped writers must see the failure instead of waiting for the flush
+        stallLock.lock();
+        try {
+            memtableFlushed.signalAll();
+        } finally {
+            stallLock.unlock();
+        }
+    }
 
-                if (level.size() > maxLevelSize) {
-                    // add new level if needed
-                    if (i == n - 1)
-                        levels.add(new ObjectArrayList<>());
+    private void compaction() {
+        while (true) {
+            Version current = acquireVersion();
+            try {
+                Compaction compaction = compactionStrategy.pick(current.levels);
+                if (compaction == null)
+                    return;
 
-                    // take all tables from the current and next level
-                    ObjectArrayList<SSTable> nextLevel = levels.get(i + 1);
-                    ObjectArrayList<SSTable> merge = new ObjectArrayList<>();
-                    merge.addAll(level);
-                    merge.addAll(nextLevel);
+                runCompaction(compaction, isBottommost(compaction, current.levels));
+            } finally {
+                current.release();
+            }
+        }
+    }
 
-                    // perform a sorted run and replace the next level
-                    var sortedRun = SSTable.sortedRun(dataDir, sstMaxSize, merge.toArray(SSTable[]::new));
+    /**
+     * Merge the compaction inputs and replace them with the result.
+     * <p>
+     * The merge runs without locking, on tables retained by the caller, split in key ranges merged in parallel
+     * on the subcompaction pool. The result is then applied to the current version, which can only differ
+     * by new level zero tables, as compactions run on a single thread.
+     * A trivial move is honored only if the source and output levels use the same codec.
+     *
+     * @param compaction     The compaction to run.
+     * @param dropTombstones Whether tombstones can be dropped from the output.
+     */
+    private void runCompaction(Compaction compaction, boolean dropTombstones) {
+        int target = compaction.outputLevel();
+        boolean move = compaction.trivialMove() && codecOf(target - 1) == codecOf(target);
 
-                    // delete previous tables
-                    level.forEach(SSTable::closeAndDelete);
-                    level.clear();
-                    nextLevel.forEach(SSTable::closeAndDelete);
-                    nextLevel.clear();
+        ObjectArrayList<SSTable> outputs = move
+                                           ? new ObjectArrayList<>(compaction.inputs())
+                                           : SSTable.sortedRun(dataDir, compaction.tableMaxByteSize(), tableOptions(target),
+                                                               subcompactionPool, snapshotSequences(), dropTombstones,
+                                                               compaction.inputs().toArray(SSTable[]::new));
 
-                    nextLevel.addAll(sortedRun);
-                }
+        versionLock.lock();
+        try {
+            ObjectArrayList<ObjectArrayList<SSTable>> levels = version.copyLevels();
+            while (levels.size() <= target)
+                levels.add(new ObjectArrayList<>());
+
+            for (ObjectArrayList<SSTable> level : levels)
+                level.removeAll(compaction.inputs());
 
-                maxLevelSize = (int) (maxLevelSize * LEVEL_INCR_FACTOR);
-                sstMaxSize = (int) (sstMaxSize * LEVEL_INCR_FACTOR);
+            ObjectArrayList<SSTable> output = levels.get(target);
+            if (compactionStrategy.isSorted(target)) {
+                // keep the level sorted by key range, outputs are empty if every key was deleted
+                int position = 0;
+                while (!outputs.isEmpty() && position < output.size() && comparator.compare(output.get(position).minKey(), outputs.get(0).minKey()) < 0)
+                    position++;
+                output.addAll(position, outputs);
+            } else {
+                // the merged tables are the newest of the level
+                output.addAll(0, outputs);
             }
+
+            // replaced tables are deleted once the readers of older versions are done
+            installVersion(levels);
+        } finally {
+            versionLock.unlock();
+        }
+    }
+
+    /**
+     * Check whether a compaction writes the bottom of its key range, no table other than the inputs,
+     * in the output level or below, can then hold an older version of the merged keys,
+     * and tombstones can be dropped with the versions they shadow.
+     * Level zero tables flushed meanwhile are newer, they do not matter.
+     */
+    private boolean isBottommost(Compaction compaction, ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        byte[] minKey = null, maxKey = null;
+        for (SSTable table : compaction.inputs()) {
+            if (minKey == null || comparator.compare(table.minKey(), minKey) < 0)
+                minKey = table.minKey();
+            if (maxKey == null || comparator.compare(table.maxKey(), maxKey) > 0)
+                maxKey = table.maxKey();
         }
+
+        for (int i = compaction.outputLevel(); i < levels.size(); i++)
+            for (SSTable table : levels.get(i))
+                if (!compaction.inputs().contains(table) &&
+                    comparator.compare(table.maxKey(), minKey) >= 0 && comparator.compare(table.minKey(), maxKey) <= 0)
+                    return false;
+
+        return true;
+    }
+
+    /**
+     * Take a reference to the current version, the caller must release it.
+     */
+    private Version acquireVersion() {
+        while (true) {
+            Version current = version;
+            // a concurrent install may have released this version, read the new one
+            if (current.tryRetain())
+                return current;
+        }
+    }
+
+    /**
+     * Persist and publish new levels, the caller must hold the version lock.
+     *
+     * @param levels The new levels, they must not be modified afterwards.
+     */
+    private void installVersion(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        Manifest.write(dataDir, levels);
+
+        Version previous = version;
+        version = new Version(levels);
+        previous.release();
+    }
+
+    /**
+     * Find the only table of a sorted level that can hold a key.
+     *
+     * @return The table, or null if the key falls outside the level tables.
+     */
+    private SSTable findTable(ObjectArrayList<SSTable> level, byte[] key) {
+        int low = 0;
+        int high = level.size() - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            SSTable table = level.get(mid);
+
+            if (comparator.compare(table.maxKey(), key) < 0)
+                low = mid + 1;
+            else if (comparator.compare(table.minKey(), key) > 0)
+                high = mid - 1;
+            else
+                return table;
+        }
+        return null;
+    }
+
+    private void recover() {
+        ObjectArrayList<String> files = new ObjectArrayList<>();
+        try (Stream<Path> f = Files.list(Path.of(dataDir))) {
+            f.map(p -> p.getFileName().toString()).forEach(files::add);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not list data directory", e);
+        }
+
+        // restore counters so that new files do not collide with existing ones
+        files.forEach(f -> SSTable.updateSstCounter(SSTable.getSstNumber(f)));
+        files.forEach(f -> WriteAheadLog.updateLogCounter(WriteAheadLog.getLogNumber(f)));
+
+        ObjectArrayList<ObjectArrayList<String>> levelNames = Manifest.read(dataDir);
+        boolean rebuilt = levelNames == null;
+        if (rebuilt) {
+            // no manifest, every complete table goes to level zero, the index being the last file written
+            levelNames = new ObjectArrayList<>();
+            levelNames.add(files.stream()
+                                .filter(f -> SSTable.getSstNumber(f) != -1 && f.endsWith(SSTable.INDEX_FILE_EXTENSION))
+                                .map(f -> f.substring(0, f.length() - SSTable.INDEX_FILE_EXTENSION.length()))
+                                .collect(Collectors.toCollection(ObjectArrayList::new)));
+        }
+
+        Set<String> live = levelNames.stream().flatMap(List::stream).collect(Collectors.toSet());
+        files.stream()
+             .filter(f -> SSTable.getSstNumber(f) != -1)
+             .filter(f -> !live.contains(f.substring(0, f.indexOf('.') == -1 ? f.length() : f.indexOf('.'))))
+             .forEach(f -> new File(dataDir, f).delete());
+
+        // open all tables in parallel, keeping the level order, their codec is read from the index
+        SSTableOptions tableOptions = tableOptions(0);
+        List<SSTable> tables = levelNames.stream()
+                                         .flatMap(List::stream)
+                                         .toList()
+                                         .parallelStream()
+                                         .map(name -> new SSTable(dataDir + "/" + name, tableOptions))
+                                         .toList();
+
+        ObjectArrayList<ObjectArrayList<SSTable>> levels = new ObjectArrayList<>();
+        int t = 0;
+        for (var names : levelNames) {
+            ObjectArrayList<SSTable> level = new ObjectArrayList<>(names.size());
+            for (int i = 0; i < names.size(); i++)
+                level.add(tables.get(t++));
+            levels.add(level);
+        }
+
+        if (rebuilt && !levels.get(0).isEmpty()) {
+            // level zero is searched from the newest table, the one with the greatest sequence numbers
+            levels.get(0).sort(Comparator.comparingLong(SSTable::maxSequence).reversed());
+            Manifest.write(dataDir, levels);
+        }
+        version = new Version(levels);
+
+        // new writes continue after the greatest sequence number, either flushed or logged
+        lastSequence.set(tables.stream().mapToLong(SSTable::maxSequence).max().orElse(0));
+
+        // replay unflushed segments
+        files.stream()
+             .filter(f -> WriteAheadLog.getLogNumber(f) != -1)
+             .sorted(Comparator.comparingLong(WriteAheadLog::getLogNumber))
+             .forEach(f -> {
+                 WriteAheadLog log = WriteAheadLog.open(dataDir + "/" + f);
+                 Memtable memtable = new Memtable(log, comparator, options.memtableStorage);
+                 if (WriteAheadLog.replay(log.filename, item -> {
+                     memtable.add(item);
+                     lastSequence.accumulateAndGet(item.sequence(), Math::max);
+                 }) == 0) {
+                     log.closeAndDelete();
+                     return;
+                 }
+                 immutableMemtables.addFirst(memtable);
+             });
+
+        visibleSequence.set(lastSequence.get());
     }
 
     private void createDataDir() {
@@ -238,7 +1027,7 @@ public class LSMTree {
         s.append("\n\tsst levels:\n");
 
         int i = 0;
-        for (var level : levels) {
+        for (var level : version.levels) {
             s.append(String.format("\t\t- %d: ", i));
             level.stream()
                  .map(st -> String.format("[ %s, size: %d ] ", st.filename, st.size))
@@ -0,0 +1,116 @@
+package com.tomfran.lsm.tree;
+
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.types.ByteArrayPair;
+import com.tomfran.lsm.utils.IteratorMerger;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Ordered iterator over a key range of an LSMTree.
+ * <p>
+ * Sources, memtables and SSTables, are merged in key order, they are expected from the newest
+ * to the oldest, so that only the most recent version of each key is returned.
+ * Versions newer than the iterator sequence number are ignored, and deleted keys are skipped,
+ * as are keys without the iterator prefix, if any.
+ * <p>
+ * Sources are closed once the end of the range is reached, an iterator that is
+ * abandoned earlier should be closed explicitly.
+ */
+public class LSMTreeIterator implements Iterator<ByteArrayPair>, AutoCloseable {
+
+    private final List<Iterator<ByteArrayPair>> sources;
+    private final Iterator<ByteArrayPair> iterator;
+    private final KeyComparator comparator;
+    private final byte[] endKey;
+    private final byte[] prefix;
+    private final long sequence;
+    private ByteArrayPair next;
+    // key of the last visible version, older versions of it are skipped
+    private byte[] lastKey;
+
+    /**
+     * Create an iterator over the given sources.
+     *
+     * @param comparator The order of the keys.
+     * @param endKey     The exclusive end of the range, null for no limit.
+     * @param prefix     The prefix of the returned keys, null for any key.
+     * @param sequence   The greatest visible sequence number.
+     * @param sources    The sorted sources, from the newest to the oldest.
+     */
+    LSMTreeIterator(KeyComparator comparator, byte[] endKey, byte[] prefix, long sequence,
+                    List<Iterator<ByteArrayPair>> sources) {
+        @SuppressWarnings("unchecked")
+        Iterator<ByteArrayPair>[] array = sources.toArray(Iterator[]::new);
+
+        this.sources = sources;
+        this.iterator = new IteratorMerger<>(ByteArrayPair.comparator(comparator), array);
+        this.comparator = comparator;
+        this.endKey = endKey;
+        this.prefix = prefix;
+        this.sequence = sequence;
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public ByteArrayPair next() {
+        ByteArrayPair result = next;
+        if (result != null)
+            advance();
+
+        return result;
+    }
+
+    /**
+     * Close the underlying sources.
+     */
+    @Override
+    public void close() {
+        next = null;
+        for (var source : sources) {
+            if (source instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private void advance() {
+        while (iterator.hasNext()) {
+            ByteArrayPair item = iterator.next();
+
+            if (endKey != null && comparator.compare(item.key(), endKey) >= 0)
+                break;
+
+            // versions of a key come from the newest, the first visible one wins
+            if (item.sequence() > sequence || Arrays.equals(item.key(), lastKey))
+                continue;
+
+            lastKey = item.key();
+
+            // skip tombstones
+            if (item.isTombstone() || (prefix != null && !startsWith(item.key(), prefix)))
+                continue;
+
+            next = item;
+            return;
+        }
+
+        close();
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.tomfran.lsm.tree;
+
+import com.tomfran.lsm.bloom.FilterType;
+import com.tomfran.lsm.compaction.CompactionStrategy;
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.memtable.Memtable.Storage;
+import com.tomfran.lsm.sstable.Codec;
+import com.tomfran.lsm.sstable.PrefixExtractor;
+import com.tomfran.lsm.sstable.SSTableOptions.ReadMode;
+import com.tomfran.lsm.wal.WriteAheadLog.SyncMode;
+
+import static com.tomfran.lsm.tree.LSMTree.*;
+
+/**
+ * Configuration of an LSMTree.
+ * <p>
+ * Every option starts from a default value, setters can be chained to override them.
+ */
+public class LSMTreeOptions {
+
+    long memtableMaxByteSize = DEFAULT_MEMTABLE_MAX_BYTE_SIZE;
+    Storage memtableStorage = Storage.HEAP;
+    int levelZeroMaxSize = DEFAULT_LEVEL_ZERO_MAX_SIZE;
+    SyncMode syncMode = SyncMode.NONE;
+    OpenMode openMode = OpenMode.CREATE;
+    ReadMode readMode = ReadMode.POSITIONAL;
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    long blockCacheByteSize = DEFAULT_BLOCK_CACHE_BYTE_SIZE;
+    Codec[] levelCodecs = {Codec.NONE};
+    double[] levelBloomBitsPerKey;
+    PrefixExtractor prefixExtractor;
+    KeyComparator comparator = KeyComparator.LEXICOGRAPHIC;
+    FilterType filterType = FilterType.BLOCKED_BLOOM;
+    CompactionStrategy compactionStrategy;
+    int stallSoftLimit = DEFAULT_STALL_SOFT_LIMIT;
+    int stallHardLimit = DEFAULT_STALL_HARD_LIMIT;
+    int flushThreads = DEFAULT_FLUSH_THREADS;
+    int subcompactions = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Set the maximum size of the mutable memtable before it is flushed to disk.
+     *
+     * @param memtableMaxByteSize The size in bytes.
+     * @return This options instance.
+     */
+    public LSMTreeOptions memtableMaxByteSize(long memtableMaxByteSize) {
+        this.memtableMaxByteSize = memtableMaxByteSize;
+        return this;
+    }
+
+    /**
+     * Set where memtables store their items, on the heap by default.
+     * <p>
+     * Off-heap memtables keep keys, values and skip list links in direct buffer slabs, so that large
+     * memtables do not fill the old generation with millions of small objects. The slabs are not counted
+     * in the heap size, the JVM direct memory limit must leave room for the memtables waiting for a flush.
+     *
+     * @param memtableStorage The memtable storage.
+     * @return This options instance.
+     */
+    public LSMTreeOptions memtableStorage(Storage memtableStorage) {
+        this.memtableStorage = memtableStorage;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of tables in level zero before it is compacted.
+     * <p>
+     * Used by the default leveled compaction strategy.
+     *
+     * @param levelZeroMaxSize The number of tables.
+     * @return This options instance.
+     */
+    public LSMTreeOptions levelZeroMaxSize(int levelZeroMaxSize) {
+        this.levelZeroMaxSize = levelZeroMaxSize;
+        return this;
+    }
+
+    /**
+     * Set the durability guarantee of writes, see WriteAheadLog.
+     *
+     * @param syncMode The write-ahead log sync mode.
+     * @return This options instance.
+     */
+    public LSMTreeOptions syncMode(SyncMode syncMode) {
+        this.syncMode = syncMode;
+        return this;
+    }
+
+    /**
+     * Set how the data directory is handled when the tree is created.
+     *
+     * @param openMode The open mode.
+     * @return This options instance.
+     */
+    public LSMTreeOptions openMode(OpenMode openMode) {
+        this.openMode = openMode;
+        return this;
+    }
+
+    /**
+     * Set how SSTables read their data files, see SSTableOptions.
+     *
+     * @param readMode The SSTable read mode.
+     * @return This options instance.
+     */
+    public LSMTreeOptions readMode(ReadMode readMode) {
+        this.readMode = readMode;
+        return this;
+    }
+
+    /**
+     * Set the target size of SSTable data blocks.
+     *
+     * @param blockSize The size in bytes.
+     * @return This options instance.
+     */
+    public LSMTreeOptions blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Set the size of the block cache shared by the tree tables, zero to disable it.
+     *
+     * @param blockCacheByteSize The size in bytes.
+     * @return This options instance.
+     */
+    public LSMTreeOptions blockCacheByteSize(long blockCacheByteSize) {
+        this.blockCacheByteSize = blockCacheByteSize;
+        return this;
+    }
+
+    /**
+     * Set the block compression codec of each level, starting from level zero.
+     * <p>
+     * The last codec applies to all the deeper levels, for instance (NONE, NONE, DEFLATE)
+     * leaves the two upper levels uncompressed and compresses everything below.
+     *
+     * @param levelCodecs The codecs, at least one.
+     * @return This options instance.
+     */
+    public LSMTreeOptions levelCodecs(Codec... levelCodecs) {
+        if (levelCodecs.length == 0)
+            throw new IllegalArgumentException("At least one codec is required");
+
+        this.levelCodecs = levelCodecs.clone();
+        return this;
+    }
+
+    /**
+     * Set the number of filter bits per key of each level, starting from level zero.
+     * <p>
+     * By default filters get the bits per key their type needs for 0.1% false positives. The last value applies
+     * to all the deeper levels. Most lookups reaching the last level find their key, hence it can use fewer bits,
+     * for instance (14, 14, 10) with a standard Bloom filter, while holding most of the keys.
+     *
+     * @param levelBloomBitsPerKey The bits per key, at least one value.
+     * @return This options instance.
+     */
+    public LSMTreeOptions levelBloomBitsPerKey(double... levelBloomBitsPerKey) {
+        if (levelBloomBitsPerKey.length == 0)
+            throw new IllegalArgumentException("At least one value is required");
+
+        for (double bitsPerKey : levelBloomBitsPerKey)
+            if (bitsPerKey <= 0)
+                throw new IllegalArgumentException("Bits per key must be positive");
+
+        this.levelBloomBitsPerKey = levelBloomBitsPerKey.clone();
+        return this;
+    }
+
+    /**
+     * Set the type of key filter of new tables, a blocked Bloom filter by default.
+     * <p>
+     * Xor filters are smaller for the same false positive rate, at the cost of a slower table write.
+     *
+     * @param filterType The filter type.
+     * @return This options instance.
+     */
+    public LSMTreeOptions filterType(FilterType filterType) {
+        this.filterType = filterType;
+        return this;
+    }
+
+    /**
+     * Set the extractor of key prefixes, tables then hold a prefix Bloom filter used by prefix scans
+     * to skip the tables without the prefix.
+     * <p>
+     * The extractor must stay the same when the tree is reopened.
+     *
+     * @param prefixExtractor The prefix extractor, null to disable prefix filters.
+     * @return This options instance.
+     */
+    public LSMTreeOptions prefixExtractor(PrefixExtractor prefixExtractor) {
+        this.prefixExtractor = prefixExtractor;
+        return this;
+    }
+
+    /**
+     * Set the order of the keys, unsigned lexicographic by default.
+     * <p>
+     * Tables record the comparator name, reopening the tree with a different comparator fails.
+     *
+     * @param comparator The key comparator.
+     * @return This options instance.
+     */
+    public LSMTreeOptions comparator(KeyComparator comparator) {
+        this.comparator = comparator;
+        return this;
+    }
+
+    /**
+     * Set the number of immutable memtables waiting for a flush that stalls writes.
+     * <p>
+     * From the soft limit on, each write is delayed, longer as more memtables pile up,
+     * at the hard limit writes block until a flush completes.
+     *
+     * @param softLimit The number of memtables from which writes are delayed.
+     * @param hardLimit The number of memtables at which writes are stopped.
+     * @return This options instance.
+     */
+    public LSMTreeOptions writeStallLimits(int softLimit, int hardLimit) {
+        if (softLimit < 1 || hardLimit < softLimit)
+            throw new IllegalArgumentException("Invalid stall limits: soft " + softLimit + ", hard " + hardLimit);
+
+        this.stallSoftLimit = softLimit;
+        this.stallHardLimit = hardLimit;
+        return this;
+    }
+
+    /**
+     * Set the number of threads flushing memtables, several memtables can then be written at once.
+     *
+     * @param flushThreads The number of flush threads, at least one.
+     * @return This options instance.
+     */
+    public LSMTreeOptions flushThreads(int flushThreads) {
+        if (flushThreads < 1)
+            throw new IllegalArgumentException("Flush threads must be positive");
+
+        this.flushThreads = flushThreads;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of subcompactions, the key ranges of a compaction merged in parallel.
+     * By default, one per available processor.
+     *
+     * @param subcompactions The number of compaction threads, at least one.
+     * @return This options instance.
+     */
+    public LSMTreeOptions subcompactions(int subcompactions) {
+        if (subcompactions < 1)
+            throw new IllegalArgumentException("Subcompactions must be positive");
+
+        this.subcompactions = subcompactions;
+        return this;
+    }
+
+    /**
+     * Set the compaction strategy, leveled compaction is used by default.
+     * <p>
+     * A strategy instance keeps state about its tree, it must not be shared.
+     *
+     * @param compactionStrategy The compaction strategy.
+     * @return This options instance.
+     */
+    public LSMTreeOptions compactionStrategy(CompactionStrategy compactionStrategy) {
+        this.compactionStrategy = compactionStrategy;
+        return this;
+    }
+
+    /**
+     * How an LSMTree treats its data directory.
+     * <ul>
+     *     <li>CREATE: create a new directory, fail if it already exists;</li>
+     *     <li>OPEN: recover the tree stored in an existing directory, fail if it is missing;</li>
+     *     <li>OPEN_OR_CREATE: recover the directory if it exists, create it otherwise.</li>
+     * </ul>
+     */
+    public enum OpenMode {
+        CREATE,
+        OPEN,
+        OPEN_OR_CREATE
+    }
+
+}
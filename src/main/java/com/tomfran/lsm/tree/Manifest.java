@@ -0,0 +1,100 @@
+package com.tomfran.lsm.tree;
+
+import com.tomfran.lsm.io.ExtendedInputStream;
+import com.tomfran.lsm.io.ExtendedOutputStream;
+import com.tomfran.lsm.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Persistent description of the tree levels.
+ * <p>
+ * The manifest lists, for each level, the base name of its tables in lookup order.
+ * It is rewritten every time the levels change, by writing a temporary file and atomically
+ * renaming it, so that a crash leaves either the old or the new version on disk. The directory is then
+ * synced, the rename, as the creation of the tables the manifest names, is only durable once it is.
+ * <p>
+ * Format:
+ * <ul>
+ *     <li><tt>l</tt>: number of levels;</li>
+ *     <li>for each level, <tt>n</tt>: number of tables, followed by <tt>name_len, name</tt> for each table.</li>
+ * </ul>
+ */
+class Manifest {
+
+    static final String MANIFEST_FILENAME = "manifest";
+    static final String TMP_EXTENSION = ".tmp";
+
+    /**
+     * Persist the current levels.
+     *
+     * @param dataDir The tree data directory.
+     * @param levels  The levels to persist.
+     */
+    static void write(String dataDir, ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        Path manifest = Path.of(dataDir, MANIFEST_FILENAME);
+        Path tmp = Path.of(dataDir, MANIFEST_FILENAME + TMP_EXTENSION);
+
+        ExtendedOutputStream os = new ExtendedOutputStream(tmp.toString());
+        os.writeVByteInt(levels.size());
+        for (var level : levels) {
+            os.writeVByteInt(level.size());
+            for (var table : level) {
+                byte[] name = Path.of(table.filename).getFileName().toString().getBytes();
+                os.writeVByteInt(name.length);
+                os.write(name);
+            }
+        }
+        os.sync();
+        os.close();
+
+        try {
+            Files.move(tmp, manifest, ATOMIC_MOVE, REPLACE_EXISTING);
+            syncDirectory(Path.of(dataDir));
+        } catch (Exception e) {
+            throw new RuntimeException("Could not write manifest", e);
+        }
+    }
+
+    private static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Read the persisted levels.
+     *
+     * @param dataDir The tree data directory.
+     * @return The table base names of each level, or null if no manifest exists.
+     */
+    static ObjectArrayList<ObjectArrayList<String>> read(String dataDir) {
+        Path manifest = Path.of(dataDir, MANIFEST_FILENAME);
+        if (!Files.exists(manifest))
+            return null;
+
+        ExtendedInputStream is = new ExtendedInputStream(manifest.toString());
+        ObjectArrayList<ObjectArrayList<String>> levels = new ObjectArrayList<>();
+
+        int numLevels = is.readVByteInt();
+        for (int i = 0; i < numLevels; i++) {
+            int numTables = is.readVByteInt();
+            ObjectArrayList<String> level = new ObjectArrayList<>(numTables);
+            for (int j = 0; j < numTables; j++)
+                level.add(new String(is.readNBytes(is.readVByteInt())));
+            levels.add(level);
+        }
+        is.close();
+
+        return levels;
+    }
+
+}
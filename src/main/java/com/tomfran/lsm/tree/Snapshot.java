@@ -0,0 +1,27 @@
+package com.tomfran.lsm.tree;
+
+/**
+ * A point-in-time view of an LSMTree.
+ * <p>
+ * Reads taking a snapshot only see the writes with a sequence number not greater than the snapshot one,
+ * that is the writes completed when the snapshot was taken. While a snapshot is live, compactions keep
+ * the versions it sees, hence it should be released once done with it.
+ */
+public final class Snapshot {
+
+    final long sequence;
+
+    Snapshot(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Get the sequence number of the last write visible to the snapshot.
+     *
+     * @return The snapshot sequence number.
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+}
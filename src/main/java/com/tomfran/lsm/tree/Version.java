@@ -0,0 +1,71 @@
+package com.tomfran.lsm.tree;
+
+import com.tomfran.lsm.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable snapshot of the tree levels.
+ * <p>
+ * Flushes and compactions never modify a version, they install a new one with a copy-on-write swap.
+ * Readers retain the current version for the duration of a lookup, hence the tables they search
+ * stay open even if a compaction replaces them in the meantime.
+ * <p>
+ * A version holds a reference to each of its tables, and the tree holds a reference to the current version.
+ * When the last reference to a version is released, so are its table references, and tables that
+ * no longer belong to any version are closed and deleted.
+ */
+final class Version {
+
+    final ObjectArrayList<ObjectArrayList<SSTable>> levels;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Create a version, the reference owned by the caller is already taken.
+     *
+     * @param levels The levels, they must not be modified afterwards.
+     */
+    Version(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        this.levels = levels;
+        levels.forEach(level -> level.forEach(SSTable::retain));
+    }
+
+    /**
+     * Take a reference, unless the version was already released for good.
+     *
+     * @return True if the reference was taken.
+     */
+    boolean tryRetain() {
+        while (true) {
+            int current = references.get();
+            if (current == 0)
+                return false;
+
+            if (references.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Release a reference, the last one releases the tables.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0)
+            levels.forEach(level -> level.forEach(SSTable::release));
+    }
+
+    /**
+     * Copy the level lists, tables are shared.
+     *
+     * @return A mutable copy of the levels.
+     */
+    ObjectArrayList<ObjectArrayList<SSTable>> copyLevels() {
+        ObjectArrayList<ObjectArrayList<SSTable>> copy = new ObjectArrayList<>(levels.size());
+        for (ObjectArrayList<SSTable> level : levels)
+            copy.add(new ObjectArrayList<>(level));
+
+        return copy;
+    }
+
+}
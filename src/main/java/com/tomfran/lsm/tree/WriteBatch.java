@@ -0,0 +1,69 @@
+package com.tomfran.lsm.tree;
+
+import com.tomfran.lsm.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * A group of puts and deletes applied to an LSMTree as a unit.
+ * <p>
+ * The batch is logged as a single write-ahead log record and inserted in a single memtable,
+ * hence after a crash it is either replayed entirely or not at all, and a flush never splits it.
+ * When the same key is written more than once, the last write wins.
+ */
+public class WriteBatch {
+
+    final ObjectArrayList<ByteArrayPair> entries = new ObjectArrayList<>();
+
+    /**
+     * Add an item to the batch.
+     *
+     * @param item The item to add.
+     * @return This batch.
+     */
+    public WriteBatch add(ByteArrayPair item) {
+        entries.add(item);
+        return this;
+    }
+
+    /**
+     * Add an item to the batch.
+     *
+     * @param key   The item key.
+     * @param value The item value.
+     * @return This batch.
+     */
+    public WriteBatch put(byte[] key, byte[] value) {
+        return add(new ByteArrayPair(key, value));
+    }
+
+    /**
+     * Remove a key, the batch holds a tombstone for it.
+     *
+     * @param key The key to remove.
+     * @return This batch.
+     */
+    public WriteBatch delete(byte[] key) {
+        return add(ByteArrayPair.tombstone(key));
+    }
+
+    /**
+     * Get the number of writes in the batch.
+     *
+     * @return Batch size.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Remove all the writes, so that the batch can be reused.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+}
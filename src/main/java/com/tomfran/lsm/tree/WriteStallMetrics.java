@@ -0,0 +1,60 @@
+package com.tomfran.lsm.tree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the writes held back because immutable memtables piled up.
+ * <p>
+ * Past the soft limit writes are delayed, at the hard limit they are stopped until a flush completes.
+ * Frequent stops mean the memtables are too small or the flush is too slow for the write rate.
+ */
+public class WriteStallMetrics {
+
+    final LongAdder delayedWrites = new LongAdder();
+    final LongAdder delayNanos = new LongAdder();
+    final LongAdder stoppedWrites = new LongAdder();
+    final LongAdder stopNanos = new LongAdder();
+
+    /**
+     * Get the number of writes delayed past the soft limit.
+     *
+     * @return Number of delayed writes.
+     */
+    public long delayedWrites() {
+        return delayedWrites.sum();
+    }
+
+    /**
+     * Get the total time spent by writes in delays.
+     *
+     * @return Delay time in nanoseconds.
+     */
+    public long delayNanos() {
+        return delayNanos.sum();
+    }
+
+    /**
+     * Get the number of writes stopped at the hard limit.
+     *
+     * @return Number of stopped writes.
+     */
+    public long stoppedWrites() {
+        return stoppedWrites.sum();
+    }
+
+    /**
+     * Get the total time spent by writes waiting for a flush at the hard limit.
+     *
+     * @return Stop time in nanoseconds.
+     */
+    public long stopNanos() {
+        return stopNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("delayed: %d (%d ms), stopped: %d (%d ms)",
+                             delayedWrites(), delayNanos() / 1_000_000, stoppedWrites(), stopNanos() / 1_000_000);
+    }
+
+}
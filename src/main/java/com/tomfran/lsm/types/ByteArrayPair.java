@@ -1,10 +1,90 @@
 package com.tomfran.lsm.types;
 
+import com.tomfran.lsm.comparator.KeyComparator;
+
 import java.util.Arrays;
+import java.util.Comparator;
 
 import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
 
-public record ByteArrayPair(byte[] key, byte[] value) implements Comparable<ByteArrayPair> {
+/**
+ * A key value pair, the unit stored by memtables, logs and tables.
+ * <p>
+ * A deleted key is stored as a tombstone, a pair whose value is the TOMBSTONE array itself.
+ * Tombstones are recognized by identity, hence an empty value remains a regular value.
+ * When encoded, each pair is preceded by its type, TYPE_VALUE or TYPE_TOMBSTONE.
+ * <p>
+ * Each write to a tree gets a sequence number, greater than the ones of the previous writes, so that
+ * many versions of a key can coexist. Pairs are ordered by key, and by decreasing sequence number
+ * among the versions of a key, hence the newest version comes first. The natural order compares keys
+ * lexicographically, trees with another key order use {@link #comparator(KeyComparator)}.
+ * Pairs created outside of a tree have sequence number zero.
+ */
+public record ByteArrayPair(byte[] key, byte[] value, long sequence) implements Comparable<ByteArrayPair> {
+
+    public static final byte TYPE_VALUE = 0;
+    public static final byte TYPE_TOMBSTONE = 1;
+
+    // marker value of deleted keys, compared by identity
+    public static final byte[] TOMBSTONE = new byte[0];
+
+    public ByteArrayPair(byte[] key, byte[] value) {
+        this(key, value, 0);
+    }
+
+    /**
+     * Create a tombstone, marking a key as deleted.
+     *
+     * @param key The deleted key.
+     * @return The tombstone.
+     */
+    public static ByteArrayPair tombstone(byte[] key) {
+        return new ByteArrayPair(key, TOMBSTONE);
+    }
+
+    /**
+     * Create a pair from its encoded type.
+     *
+     * @param type     The pair type.
+     * @param sequence The pair sequence number.
+     * @param key      The key.
+     * @param value    The value, ignored for tombstones.
+     * @return The pair.
+     */
+    public static ByteArrayPair of(int type, long sequence, byte[] key, byte[] value) {
+        return new ByteArrayPair(key, type == TYPE_TOMBSTONE ? TOMBSTONE : value, sequence);
+    }
+
+    /**
+     * Get a copy of the pair with a sequence number.
+     *
+     * @param sequence The sequence number.
+     * @return The sequenced pair.
+     */
+    public ByteArrayPair withSequence(long sequence) {
+        return new ByteArrayPair(key, value, sequence);
+    }
+
+    /**
+     * Get the order of pairs for a key comparator, by key and by decreasing sequence number.
+     *
+     * @param comparator The key comparator.
+     * @return The pair comparator.
+     */
+    public static Comparator<ByteArrayPair> comparator(KeyComparator comparator) {
+        return (a, b) -> {
+            int cmp = comparator.compare(a.key, b.key);
+            return cmp != 0 ? cmp : Long.compare(b.sequence, a.sequence);
+        };
+    }
+
+    public boolean isTombstone() {
+        return value == TOMBSTONE;
+    }
+
+    public byte type() {
+        return isTombstone() ? TYPE_TOMBSTONE : TYPE_VALUE;
+    }
 
     public int size() {
         return key.length + value.length;
@@ -17,7 +97,8 @@ public record ByteArrayPair(byte[] key, byte[] value) implements Comparable<Byte
 
     @Override
     public int compareTo(ByteArrayPair o) {
-        return compare(key, o.key);
+        int cmp = compare(key, o.key);
+        return cmp != 0 ? cmp : Long.compare(o.sequence, sequence);
     }
 
     @Override
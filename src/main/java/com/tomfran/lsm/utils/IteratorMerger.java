@@ -4,15 +4,19 @@ import it.unimi.dsi.fastutil.Pair;
 import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
 import it.unimi.dsi.fastutil.objects.ObjectIntMutablePair;
 
+import java.util.Comparator;
 import java.util.Iterator;
 
-import static java.util.Comparator.comparing;
-
 /**
  * Merges multiple sorted Iterators into a single sorted Iterator.
  * <p>
  * Time complexity to read a single element is O(log n) where n is the number of Iterators.
  * <p>
+ * Equal elements are returned in the order of the Iterators they come from, hence when
+ * Iterators are sorted from the newest to the oldest, the newest version comes first.
+ * <p>
+ * Elements are compared by their natural order, unless a comparator is given.
+ * <p>
  * Reads after the last element of the last Iterator will return null.
  *
  * @param <T> The type of the elements in the Iterators.
@@ -24,10 +28,15 @@ public class IteratorMerger<T extends Comparable<T>> implements Iterator<T> {
 
     @SafeVarargs
     public IteratorMerger(Iterator<T>... iterators) {
+        this(Comparator.naturalOrder(), iterators);
+    }
+
+    @SafeVarargs
+    public IteratorMerger(Comparator<? super T> comparator, Iterator<T>... iterators) {
         this.iterators = iterators;
         queue = new ObjectHeapPriorityQueue<>(
-                comparing((Pair<T, Integer> a) -> a.first())
-                        .thenComparingInt(Pair::second)
+                Comparator.comparing((Pair<T, Integer> a) -> a.first(), comparator)
+                          .thenComparingInt(Pair::second)
         );
 
         for (int i = 0; i < iterators.length; i++) {
@@ -50,13 +59,11 @@ public class IteratorMerger<T extends Comparable<T>> implements Iterator<T> {
 
         T result = top.first();
 
+        // refill from the same iterator, keeping its index so that ties
+        // are always resolved in favour of the first iterators
         int index = top.second();
-        if (index == -1)
-            return result;
-
-        T next = iterators[index].next();
-        int newIndex = iterators[index].hasNext() ? index : -1;
-        queue.enqueue(top.first(next).second(newIndex));
+        if (iterators[index].hasNext())
+            queue.enqueue(top.first(iterators[index].next()));
 
         return result;
     }
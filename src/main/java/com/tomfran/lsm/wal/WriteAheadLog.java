@@ -0,0 +1,316 @@
+package com.tomfran.lsm.wal;
+
+import com.tomfran.lsm.io.ByteArrayEncoder;
+import com.tomfran.lsm.io.ByteBufferDecoder;
+import com.tomfran.lsm.types.ByteArrayPair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Write-ahead log segment.
+ * <p>
+ * Each Memtable is backed by a segment, every write is appended to it before being
+ * applied in memory, so that it can be replayed after a crash. A segment can be deleted
+ * as soon as the Memtable content has been persisted as an SSTable.
+ * <p>
+ * The segment is a sequence of records, each one is encoded as:
+ * <tt>|crc (4 bytes)|length (4 bytes)|payload|</tt>, where the payload is the
+ * number of entries followed by the entries, encoded as ByteArrayPairs. A torn or corrupted
+ * record at the end of the file, caused by a crash during a write, ends the replay.
+ * <p>
+ * Durability is controlled by the SyncMode:
+ * <ul>
+ *     <li>NONE: records are handed to the operating system, and only forced to disk on close;</li>
+ *     <li>BATCH: writers wait for their record to be on disk, concurrent writers are grouped
+ *     and share a single fsync (group commit);</li>
+ *     <li>WRITE: every record is forced to disk before returning from append.</li>
+ * </ul>
+ */
+public class WriteAheadLog {
+
+    public static final String LOG_FILE_PREFIX = "wal_";
+    public static final String LOG_FILE_EXTENSION = ".log";
+
+    static final AtomicLong LOG_COUNTER = new AtomicLong();
+
+    static final int HEADER_SIZE = 8;
+
+    public final String filename;
+    final SyncMode syncMode;
+    final FileChannel channel;
+    // recovered segments are only replayed, new writes go to a new segment
+    final boolean readOnly;
+
+    final Object appendLock = new Object();
+    final ReentrantLock syncLock = new ReentrantLock();
+    final Condition syncDone = syncLock.newCondition();
+
+    volatile long writtenBytes;
+    long syncedBytes;
+    boolean syncing;
+    boolean closed;
+
+    /**
+     * Create a new segment with the next available name in a directory.
+     *
+     * @param directory The directory to create the segment in.
+     * @param syncMode  The durability guarantee of appends.
+     */
+    public WriteAheadLog(String directory, SyncMode syncMode) {
+        this(getNextLogFilename(directory), syncMode, false, CREATE_NEW, WRITE);
+    }
+
+    /**
+     * Open an existing segment read-only, for instance one found while recovering a tree.
+     * <p>
+     * The segment is replayed, and deleted once its content is flushed, appends are refused.
+     *
+     * @param filename The segment to open.
+     * @return The opened segment.
+     */
+    public static WriteAheadLog open(String filename) {
+        return new WriteAheadLog(filename, SyncMode.NONE, true, READ);
+    }
+
+    private WriteAheadLog(String filename, SyncMode syncMode, boolean readOnly, OpenOption... options) {
+        this.filename = filename;
+        this.syncMode = syncMode;
+        this.readOnly = readOnly;
+        try {
+            channel = FileChannel.open(Path.of(filename), options);
+            writtenBytes = syncedBytes = channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open log segment " + filename, e);
+        }
+    }
+
+    /**
+     * Replay the records of a segment, in the order they were written.
+     *
+     * @param filename The segment to read.
+     * @param consumer The consumer receiving each entry.
+     * @return The number of replayed entries.
+     */
+    public static long replay(String filename, Consumer<ByteArrayPair> consumer) {
+        ByteBuffer data;
+        try (FileChannel in = FileChannel.open(Path.of(filename), READ)) {
+            data = ByteBuffer.allocate((int) in.size());
+            while (data.hasRemaining() && in.read(data) >= 0) ;
+            data.flip();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read log segment " + filename, e);
+        }
+
+        long replayed = 0;
+        CRC32C crc = new CRC32C();
+
+        while (data.remaining() >= HEADER_SIZE) {
+            int checksum = data.getInt();
+            int length = data.getInt();
+
+            if (length < 0 || length > data.remaining())
+                break;
+
+            ByteBuffer payload = data.slice(data.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+
+            data.position(data.position() + length);
+
+            ByteBufferDecoder decoder = new ByteBufferDecoder(payload);
+            int count = decoder.readVByteInt();
+            for (int i = 0; i < count; i++) {
+                consumer.accept(decoder.readBytePair());
+                replayed++;
+            }
+        }
+
+        return replayed;
+    }
+
+    /**
+     * Get the sequence number in a segment filename, or -1 if it is not a segment.
+     *
+     * @param filename The segment file name, without directory.
+     * @return The segment number.
+     */
+    public static long getLogNumber(String filename) {
+        if (!filename.startsWith(LOG_FILE_PREFIX) || !filename.endsWith(LOG_FILE_EXTENSION))
+            return -1;
+
+        try {
+            return Long.parseLong(filename.substring(LOG_FILE_PREFIX.length(), filename.length() - LOG_FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Make sure the next segment names do not collide with an existing segment.
+     *
+     * @param logNumber The number of an existing segment.
+     */
+    public static void updateLogCounter(long logNumber) {
+        LOG_COUNTER.accumulateAndGet(logNumber, Math::max);
+    }
+
+    private static String getNextLogFilename(String directory) {
+        return String.format("%s/%s%d%s", directory, LOG_FILE_PREFIX, LOG_COUNTER.incrementAndGet(), LOG_FILE_EXTENSION);
+    }
+
+    /**
+     * Append a single entry to the segment, see append(List).
+     *
+     * @param item The entry to append.
+     * @return A ticket to pass to sync().
+     */
+    public long append(ByteArrayPair item) {
+        return append(List.of(item));
+    }
+
+    /**
+     * Append entries to the segment as a single record.
+     * <p>
+     * With SyncMode.WRITE the record is on disk when this method returns, with SyncMode.BATCH
+     * the caller must call sync() with the returned ticket, possibly outside its own locks so that
+     * other writers can join the same fsync.
+     *
+     * @param items The entries to append.
+     * @return A ticket to pass to sync().
+     */
+    public long append(List<ByteArrayPair> items) {
+        ByteArrayEncoder encoder = new ByteArrayEncoder();
+        encoder.writeInt(0);
+        encoder.writeInt(0);
+        encoder.writeVByteInt(items.size());
+        for (ByteArrayPair item : items)
+            encoder.writeByteArrayPair(item);
+
+        CRC32C crc = new CRC32C();
+        crc.update(encoder.array(), HEADER_SIZE, encoder.size() - HEADER_SIZE);
+        encoder.setInt(0, (int) crc.getValue());
+        encoder.setInt(4, encoder.size() - HEADER_SIZE);
+
+        synchronized (appendLock) {
+            if (readOnly)
+                throw new IllegalStateException("Log segment " + filename + " is read-only");
+            if (closed)
+                throw new IllegalStateException("Log segment " + filename + " is closed");
+
+            try {
+                ByteBuffer record = ByteBuffer.wrap(encoder.array(), 0, encoder.size());
+                while (record.hasRemaining())
+                    channel.write(record);
+
+                if (syncMode == SyncMode.WRITE)
+                    channel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not append to log segment " + filename, e);
+            }
+
+            writtenBytes += encoder.size();
+            return writtenBytes;
+        }
+    }
+
+    /**
+     * Wait until the record identified by a ticket is on disk.
+     * <p>
+     * Only SyncMode.BATCH waits: the first writer to arrive forces every record appended so far,
+     * while the others wait for it, and are released at once if their records were covered.
+     *
+     * @param ticket The ticket returned by append().
+     */
+    public void sync(long ticket) {
+        if (syncMode != SyncMode.BATCH)
+            return;
+
+        syncLock.lock();
+        try {
+            while (syncedBytes < ticket) {
+                if (syncing) {
+                    syncDone.awaitUninterruptibly();
+                    continue;
+                }
+
+                syncing = true;
+                long target = writtenBytes;
+                syncLock.unlock();
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not sync log segment " + filename, e);
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    syncDone.signalAll();
+                }
+                syncedBytes = Math.max(syncedBytes, target);
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Force pending records to disk and close the segment.
+     * <p>
+     * Following calls to sync() return immediately, as every record is on disk.
+     */
+    public void close() {
+        synchronized (appendLock) {
+            syncLock.lock();
+            try {
+                while (syncing)
+                    syncDone.awaitUninterruptibly();
+
+                if (closed)
+                    return;
+
+                closed = true;
+                if (!readOnly)
+                    channel.force(false);
+                channel.close();
+                syncedBytes = writtenBytes;
+                syncDone.signalAll();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not close log segment " + filename, e);
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Close the segment and delete its file, once its content is persisted elsewhere.
+     */
+    public void closeAndDelete() {
+        close();
+        new File(filename).delete();
+    }
+
+    /**
+     * Durability guarantee of log appends.
+     */
+    public enum SyncMode {
+        NONE,
+        BATCH,
+        WRITE
+    }
+
+}
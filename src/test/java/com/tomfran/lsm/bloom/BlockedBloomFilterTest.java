@@ -0,0 +1,53 @@
+package com.tomfran.lsm.bloom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static com.tomfran.lsm.TestUtils.getRandomByteArrayList;
+
+class BlockedBloomFilterTest {
+
+    static final int INSERTIONS = 10000;
+    static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @TempDir
+    static Path tempDirectory;
+
+    @Test
+    void accuracy() {
+        BlockedBloomFilter b = new BlockedBloomFilter(INSERTIONS, FALSE_POSITIVE_RATE);
+        assert b.size % BlockedBloomFilter.BLOCK_BITS == 0;
+
+        var data = getRandomByteArrayList(6 * INSERTIONS);
+        data.stream().limit(INSERTIONS).forEach(d -> {
+            b.add(d);
+            assert b.mightContain(d);
+        });
+
+        int falsePositives = data.stream().skip(INSERTIONS)
+                                 .mapToInt(d -> b.mightContain(d) ? 1 : 0).sum();
+
+        // blocks fill unevenly, a small excess over the target rate is expected
+        double falsePositiveRate = falsePositives / (5.0 * INSERTIONS);
+        assert falsePositiveRate < FALSE_POSITIVE_RATE * 1.5 : "False positive rate too high: " + falsePositiveRate;
+    }
+
+    @Test
+    void shouldReconstruct() {
+        BlockedBloomFilter bf = new BlockedBloomFilter(INSERTIONS, FALSE_POSITIVE_RATE);
+        var data = getRandomByteArrayList(INSERTIONS);
+        data.forEach(bf::add);
+        bf.writeToFile(tempDirectory + "/blocked.bloom");
+
+        BloomFilter bf2 = BloomFilter.readFromFile(tempDirectory + "/blocked.bloom");
+
+        assert bf2 instanceof BlockedBloomFilter : "format not recorded";
+        assert bf2.size == bf.size && bf2.hashCount == bf.hashCount;
+        data.forEach(d -> {
+            assert bf2.mightContain(d);
+        });
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.tomfran.lsm.bloom;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static com.tomfran.lsm.TestUtils.getRandomByteArrayList;
+
+class XorFilterTest {
+
+    static final int INSERTIONS = 10000;
+
+    @TempDir
+    static Path tempDirectory;
+
+    @Test
+    void accuracy() {
+        var data = getRandomByteArrayList(6 * INSERTIONS);
+        long[] hashes = data.stream().limit(INSERTIONS).mapToLong(d -> BloomFilter.hash(d)[0]).toArray();
+
+        // 8 bits fingerprints, 1 / 256 false positives in under 10 bits per key
+        XorFilter f = XorFilter.build(hashes, 8);
+        assert f.size() < 10 * INSERTIONS : "size " + f.size();
+
+        data.stream().limit(INSERTIONS).forEach(d -> {
+            assert f.mightContain(d);
+        });
+
+        int falsePositives = data.stream().skip(INSERTIONS).mapToInt(d -> f.mightContain(d) ? 1 : 0).sum();
+        double falsePositiveRate = falsePositives / (5.0 * INSERTIONS);
+        assert falsePositiveRate < 1.5 / 256 : "False positive rate too high: " + falsePositiveRate;
+    }
+
+    @Test
+    void smallerThanBloomForTheSameRate() {
+        var data = getRandomByteArrayList(6 * INSERTIONS);
+        var hashes = new LongArrayList();
+        data.stream().limit(INSERTIONS).forEach(d -> hashes.addElements(hashes.size(), BloomFilter.hash(d)));
+
+        double rate = 0.001;
+        KeyFilter xor = FilterType.XOR.build(hashes, FilterType.XOR.bitsPerKey(rate));
+        KeyFilter bloom = FilterType.BLOOM.build(hashes, FilterType.BLOOM.bitsPerKey(rate));
+
+        // 10 bits fingerprints in 1.23 slots per key, against 1.44 * log2(1000) bits
+        double xorBitsPerKey = (double) xor.size() / INSERTIONS;
+        double bloomBitsPerKey = (double) bloom.size() / INSERTIONS;
+        assert xorBitsPerKey < 12.5 : "xor bits per key " + xorBitsPerKey;
+        assert bloomBitsPerKey > 14 && xorBitsPerKey < 0.9 * bloomBitsPerKey : "bloom bits per key " + bloomBitsPerKey;
+
+        int falsePositives = data.stream().skip(INSERTIONS).mapToInt(d -> xor.mightContain(d) ? 1 : 0).sum();
+        double falsePositiveRate = falsePositives / (5.0 * INSERTIONS);
+        assert falsePositiveRate < 2 * rate : "False positive rate too high: " + falsePositiveRate;
+    }
+
+    @Test
+    void duplicatesAndOddSizes() {
+        var data = getRandomByteArrayList(1000);
+        long[] hashes = new long[2000];
+        for (int i = 0; i < hashes.length; i++)
+            hashes[i] = BloomFilter.hash(data.get(i % 1000))[0];
+
+        // fingerprints crossing long boundaries
+        for (int bits : new int[]{1, 7, 13, 32}) {
+            XorFilter f = XorFilter.build(hashes, bits);
+            data.forEach(d -> {
+                assert f.mightContain(d) : "missing key with " + bits + " bits";
+            });
+        }
+
+        assert XorFilter.build(new long[0], 8).size() > 0;
+    }
+
+    @Test
+    void shouldReconstruct() {
+        var data = getRandomByteArrayList(INSERTIONS);
+        XorFilter f = XorFilter.build(data.stream().mapToLong(d -> BloomFilter.hash(d)[0]).toArray(), 11);
+        f.writeToFile(tempDirectory + "/filter.xor");
+
+        KeyFilter f2 = KeyFilter.readFromFile(tempDirectory + "/filter.xor");
+
+        assert f2 instanceof XorFilter x && x.seed == f.seed && x.blockLength == f.blockLength;
+        data.forEach(d -> {
+            assert f2.mightContain(d);
+        });
+    }
+
+}
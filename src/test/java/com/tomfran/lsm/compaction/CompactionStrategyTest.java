@@ -0,0 +1,134 @@
+package com.tomfran.lsm.compaction;
+
+import com.tomfran.lsm.sstable.SSTable;
+import com.tomfran.lsm.tree.LSMTree;
+import com.tomfran.lsm.tree.LSMTreeOptions;
+import com.tomfran.lsm.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.tomfran.lsm.TestUtils.getRandomPair;
+import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
+
+class CompactionStrategyTest {
+
+    @TempDir
+    static Path tempDirectory;
+
+    private static SSTable table(int from, int to) {
+        var items = IntStream.range(from, to)
+                             .mapToObj(i -> new ByteArrayPair(new byte[]{(byte) i}, new byte[]{1}))
+                             .iterator();
+        return new SSTable(tempDirectory.toString(), items);
+    }
+
+    private static ObjectArrayList<SSTable> level(SSTable... tables) {
+        return ObjectArrayList.of(tables);
+    }
+
+    @Test
+    public void leveledShouldMergeOverlappingTables() {
+        var l1 = level(table(0, 10), table(20, 30), table(40, 50));
+        var l0 = level(table(25, 27), table(22, 28), table(21, 23));
+
+        var strategy = new LeveledCompactionStrategy(2, 1024);
+        Compaction compaction = strategy.pick(List.of(l0, l1));
+
+        assert compaction != null;
+        assert compaction.outputLevel() == 1;
+        // level zero first, from the newest, then the only overlapping table
+        assert compaction.inputs().equals(List.of(l0.get(0), l0.get(1), l0.get(2), l1.get(1)));
+        assert !compaction.trivialMove();
+
+        assert strategy.pick(List.of(level(l0.get(0)), l1)) == null;
+    }
+
+    @Test
+    public void leveledShouldMoveDisjointTables() {
+        var l1 = level(table(0, 10), table(20, 30), table(40, 50), table(60, 70));
+        var l2 = level(table(35, 45));
+
+        var strategy = new LeveledCompactionStrategy(1, 1024, 2);
+
+        Compaction first = strategy.pick(List.of(level(), l1, l2));
+        assert first.inputs().equals(List.of(l1.get(0)));
+        assert first.trivialMove();
+
+        // the next compaction starts after the previous range
+        Compaction second = strategy.pick(List.of(level(), l1, l2));
+        assert second.inputs().equals(List.of(l1.get(1)));
+
+        Compaction third = strategy.pick(List.of(level(), l1, l2));
+        assert third.inputs().equals(List.of(l1.get(2), l2.get(0)));
+        assert !third.trivialMove();
+    }
+
+    @Test
+    public void sizeTieredShouldMergeFullTiers() {
+        var t0 = level(table(0, 10), table(5, 15), table(10, 20));
+        var strategy = new SizeTieredCompactionStrategy(4);
+
+        assert strategy.pick(List.of(t0)) == null;
+
+        t0.add(0, table(0, 20));
+        Compaction compaction = strategy.pick(List.of(t0, level()));
+
+        assert compaction.outputLevel() == 1;
+        assert compaction.inputs().equals(t0);
+        assert !strategy.isSorted(1);
+    }
+
+    @Test
+    public void hybridShouldTierThenLevel() {
+        var strategy = new HybridCompactionStrategy(2, 1024, 2);
+
+        assert !strategy.isSorted(0) && !strategy.isSorted(1) && strategy.isSorted(2);
+
+        var t0 = level(table(0, 10), table(5, 15), table(10, 20));
+        Compaction tiered = strategy.pick(List.of(t0, level()));
+        assert tiered.outputLevel() == 1;
+        assert tiered.inputs().equals(t0);
+
+        var l2 = level(table(0, 5), table(50, 60));
+        var t1 = level(table(0, 10), table(5, 15), table(10, 20));
+        Compaction leveled = strategy.pick(List.of(level(), t1, l2));
+        assert leveled.outputLevel() == 2;
+        assert leveled.inputs().equals(List.of(t1.get(0), t1.get(1), t1.get(2), l2.get(0)));
+    }
+
+    @Test
+    public void treeShouldWorkWithEveryStrategy() throws InterruptedException {
+        List<CompactionStrategy> strategies = List.of(
+                new LeveledCompactionStrategy(2, 160),
+                new SizeTieredCompactionStrategy(3),
+                new HybridCompactionStrategy(2, 160)
+        );
+
+        int n = 0;
+        for (CompactionStrategy strategy : strategies) {
+            LSMTree tree = new LSMTree(tempDirectory + "/tree" + n++,
+                                       new LSMTreeOptions().memtableMaxByteSize(80).compactionStrategy(strategy));
+
+            Object2ObjectArrayMap<byte[], byte[]> items = new Object2ObjectArrayMap<>();
+            IntStream.range(0, 300).forEach(i -> {
+                var it = getRandomPair(4, 2);
+                tree.add(it);
+                items.put(it.key(), it.value());
+            });
+
+            Thread.sleep(1500);
+
+            for (var it : items.entrySet())
+                assert compare(tree.get(it.getKey()), it.getValue()) == 0 : strategy + " lost a key";
+
+            tree.stop();
+        }
+    }
+
+}
@@ -1,9 +1,13 @@
 package com.tomfran.lsm.comparator;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.stream.Stream;
 
 class ByteArrayComparatorTest {
@@ -14,6 +18,17 @@ class ByteArrayComparatorTest {
                 Arguments.of(new byte[]{1, 2}, new byte[]{1}, 1),
                 Arguments.of(new byte[]{1, 2}, new byte[]{1, 3}, -1),
                 Arguments.of(new byte[]{1, 2}, new byte[]{1, 1}, 1),
+                Arguments.of(new byte[]{1, 2}, new byte[]{1, 2}, 0),
+                Arguments.of(new byte[]{2}, new byte[]{1, 2}, 1),
+                Arguments.of(new byte[]{(byte) 0x80}, new byte[]{0x7F}, 1)
+                        );
+    }
+
+    static Stream<Arguments> shouldCompareLengthFirst() {
+        return Stream.of(
+                Arguments.of(new byte[]{2}, new byte[]{1, 2}, -1),
+                Arguments.of(new byte[]{1, 2}, new byte[]{1, 3}, -1),
+                Arguments.of(new byte[]{(byte) 0x80}, new byte[]{0x7F}, -1),
                 Arguments.of(new byte[]{1, 2}, new byte[]{1, 2}, 0)
                         );
     }
@@ -22,6 +37,55 @@ class ByteArrayComparatorTest {
     @MethodSource
     public void shouldCompare(byte[] a, byte[] b, int expected) {
         assert ByteArrayComparator.compare(a, b) == expected;
+        assert KeyComparator.LEXICOGRAPHIC.compare(a, b) == expected;
+        assert KeyComparator.LEXICOGRAPHIC.compare(ByteBuffer.wrap(a), 0, a.length, b) == expected;
+    }
+
+    @Test
+    public void shouldCompareInBuffer() {
+        var random = new Random(42);
+        var buffer = ByteBuffer.allocateDirect(64);
+
+        for (int i = 0; i < 10000; i++) {
+            // short alphabet and shared prefixes, so that mismatches fall both in words and in the tail
+            byte[] a = new byte[random.nextInt(20)];
+            for (int j = 0; j < a.length; j++)
+                a[j] = (byte) (random.nextInt(3) * 0x7F);
+            byte[] b = Arrays.copyOf(a, random.nextInt(20));
+            if (b.length > 0 && random.nextBoolean())
+                b[random.nextInt(b.length)] = (byte) random.nextInt(256);
+
+            // an odd offset, words are read unaligned
+            int offset = 1 + random.nextInt(40);
+            buffer.put(offset, a);
+
+            int expected = ByteArrayComparator.compare(a, b);
+            assert ByteArrayComparator.compare(buffer, offset, a.length, b) == expected
+                    : Arrays.toString(a) + " " + Arrays.toString(b);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    public void shouldCompareLengthFirst(byte[] a, byte[] b, int expected) {
+        assert ByteArrayComparator.compareLengthFirst(a, b) == expected;
+        assert KeyComparator.LENGTH_FIRST.compare(a, b) == expected;
+    }
+
+    @Test
+    public void prefixEnd() {
+        var comparator = KeyComparator.LEXICOGRAPHIC;
+
+        assert Arrays.equals(comparator.prefixEnd(new byte[]{1, 2}), new byte[]{1, 3});
+        assert Arrays.equals(comparator.prefixEnd(new byte[]{1, (byte) 0xFF, (byte) 0xFF}), new byte[]{2});
+        assert comparator.prefixEnd(new byte[]{(byte) 0xFF}) == null;
+        assert KeyComparator.LENGTH_FIRST.prefixEnd(new byte[]{1}) == null;
+
+        // every key with the prefix falls before its end
+        byte[] prefix = {1, (byte) 0xFF};
+        byte[] end = comparator.prefixEnd(prefix);
+        for (byte[] key : new byte[][]{{1, (byte) 0xFF}, {1, (byte) 0xFF, (byte) 0xFF, 3}, {1, (byte) 0xFF, 0}})
+            assert comparator.compare(key, prefix) >= 0 && comparator.compare(key, end) < 0;
     }
 
-}
\ No newline at end of file
+}
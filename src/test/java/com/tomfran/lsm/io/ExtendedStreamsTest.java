@@ -50,4 +50,33 @@ public class ExtendedStreamsTest {
         });
     }
 
+    @Test
+    public void shouldEncodeDecode() {
+
+        var encoder = new ByteArrayEncoder(1);
+
+        var intList = Stream.generate(rn::nextInt).map(Math::abs).limit(1000).toList();
+        intList.forEach(encoder::writeVByteInt);
+
+        var longList = Stream.generate(rn::nextLong).limit(1000).toList();
+        longList.forEach(encoder::writeLong);
+
+        var pairList = Stream.generate(TestUtils::getRandomPair).limit(1000).toList();
+        pairList.forEach(encoder::writeByteArrayPair);
+
+        var decoder = new ByteBufferDecoder(encoder.toByteArray());
+
+        intList.forEach(i -> {
+            assert decoder.readVByteInt() == i;
+        });
+
+        longList.forEach(i -> {
+            assert decoder.readLong() == i;
+        });
+
+        pairList.forEach(i -> TestUtils.assertPairEqual(i, decoder.readBytePair()));
+
+        assert !decoder.hasRemaining();
+    }
+
 }
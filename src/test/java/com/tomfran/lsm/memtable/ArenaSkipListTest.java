@@ -0,0 +1,91 @@
+package com.tomfran.lsm.memtable;
+
+import com.tomfran.lsm.TestUtils;
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.types.ByteArrayPair;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
+
+class ArenaSkipListTest {
+
+    static final int THREADS = 8, PER_THREAD = 2000;
+
+    @Test
+    public void shouldFind() {
+        var l = new ArenaSkipList(100, KeyComparator.LEXICOGRAPHIC);
+        var items = Stream.generate(TestUtils::getRandomPair).limit(100).toList();
+        items.forEach(l::add);
+
+        for (ByteArrayPair item : items) {
+            var found = l.get(item.key());
+            assert found != null;
+            assert compare(found, item.value()) == 0;
+        }
+
+        assert l.get(TestUtils.getRandomByteArray()) == null;
+    }
+
+    @Test
+    public void shouldReadVersions() {
+        // small slabs, so that nodes spread over many of them, and a value bigger than a slab
+        var l = new ArenaSkipList(100, KeyComparator.LEXICOGRAPHIC, 256);
+        byte[] key = "key".getBytes();
+
+        l.add(new ByteArrayPair(key, new byte[]{1}, 1));
+        l.add(new ByteArrayPair(key, ByteArrayPair.TOMBSTONE, 2));
+        l.add(new ByteArrayPair(key, new byte[1000], 3));
+        l.add(new ByteArrayPair(key, new byte[]{2}, 1));
+
+        assert l.size() == 3 : "size is " + l.size();
+        assert l.get(key).length == 1000;
+        assert l.get(key, 2) == ByteArrayPair.TOMBSTONE;
+        assert l.get(key, 1)[0] == 2 : "value not replaced";
+        assert l.get(key, 0) == null;
+        assert l.allocatedBytes() > 1000;
+
+        // newest version first
+        var it = l.iterator(key);
+        assert it.next().sequence() == 3 && it.next().isTombstone() && it.next().value()[0] == 2;
+        assert !it.hasNext();
+    }
+
+    @Test
+    public void shouldAddConcurrently() throws InterruptedException {
+        var l = new ArenaSkipList(THREADS * PER_THREAD, KeyComparator.LEXICOGRAPHIC, 4096);
+
+        List<List<ByteArrayPair>> items = IntStream.range(0, THREADS)
+                                                   .mapToObj(t -> Stream.generate(TestUtils::getRandomPair)
+                                                                        .limit(PER_THREAD)
+                                                                        .toList())
+                                                   .toList();
+
+        var threads = items.stream().map(list -> new Thread(() -> list.forEach(l::add))).toList();
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+
+        assert l.size() == THREADS * PER_THREAD : "size is " + l.size();
+
+        for (var list : items)
+            for (var item : list)
+                assert compare(l.get(item.key()), item.value()) == 0;
+
+        // the lowest level must be sorted and complete
+        var it = l.iterator();
+        var previous = it.next();
+        int count = 1;
+        while (it.hasNext()) {
+            var current = it.next();
+            assert compare(previous.key(), current.key()) < 0;
+            previous = current;
+            count++;
+        }
+        assert count == THREADS * PER_THREAD : "iterated " + count + " items";
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.tomfran.lsm.memtable;
+
+import com.tomfran.lsm.TestUtils;
+import com.tomfran.lsm.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
+
+class ConcurrentSkipListTest {
+
+    static final int THREADS = 8, PER_THREAD = 2000;
+
+    @Test
+    public void shouldFind() {
+        var l = new ConcurrentSkipList(100);
+        var items = Stream.generate(TestUtils::getRandomPair).limit(100).toList();
+        items.forEach(l::add);
+
+        for (ByteArrayPair item : items) {
+            var found = l.get(item.key());
+            assert found != null;
+            assert compare(found, item.value()) == 0;
+        }
+
+        assert l.get(TestUtils.getRandomByteArray()) == null;
+    }
+
+    @Test
+    public void shouldAddConcurrently() throws InterruptedException {
+        var l = new ConcurrentSkipList(THREADS * PER_THREAD);
+
+        List<List<ByteArrayPair>> items = IntStream.range(0, THREADS)
+                                                   .mapToObj(t -> Stream.generate(TestUtils::getRandomPair)
+                                                                        .limit(PER_THREAD)
+                                                                        .toList())
+                                                   .toList();
+
+        var threads = items.stream().map(list -> new Thread(() -> list.forEach(l::add))).toList();
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+
+        assert l.size() == THREADS * PER_THREAD : "size is " + l.size();
+
+        for (var list : items)
+            for (var item : list)
+                assert compare(l.get(item.key()), item.value()) == 0;
+
+        // the lowest level must be sorted and complete
+        var it = l.iterator();
+        var previous = it.next();
+        int count = 1;
+        while (it.hasNext()) {
+            var current = it.next();
+            assert compare(previous.key(), current.key()) < 0;
+            previous = current;
+            count++;
+        }
+        assert count == THREADS * PER_THREAD : "iterated " + count + " items";
+    }
+
+    @Test
+    public void shouldUpdateConcurrently() throws InterruptedException {
+        var l = new ConcurrentSkipList(100);
+        var keys = new ObjectArrayList<byte[]>();
+        IntStream.range(0, 100).forEach(i -> keys.add(new byte[]{(byte) i}));
+
+        var threads = IntStream.range(0, THREADS).mapToObj(t -> new Thread(() -> {
+            for (byte[] key : keys)
+                l.add(new ByteArrayPair(key, new byte[]{(byte) t}));
+        })).toList();
+
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+
+        assert l.size() == keys.size() : "size is " + l.size();
+        for (byte[] key : keys)
+            assert l.get(key) != null;
+    }
+
+}
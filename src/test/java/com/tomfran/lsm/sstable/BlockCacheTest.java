@@ -0,0 +1,40 @@
+package com.tomfran.lsm.sstable;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+class BlockCacheTest {
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        var cache = new BlockCache(300, 1);
+
+        cache.put(1, 0, ByteBuffer.allocate(100));
+        cache.put(1, 1, ByteBuffer.allocate(100));
+        cache.put(2, 0, ByteBuffer.allocate(100));
+
+        // touch the oldest block, the next insertion evicts (1, 1)
+        assert cache.get(1, 0) != null;
+        cache.put(2, 1, ByteBuffer.allocate(100));
+
+        assert cache.get(1, 1) == null;
+        assert cache.get(1, 0) != null;
+        assert cache.get(2, 0) != null;
+        assert cache.get(2, 1) != null;
+        assert cache.byteSize() == 300;
+
+        assert cache.hits() == 4;
+        assert cache.misses() == 1;
+    }
+
+    @Test
+    public void shouldSkipOversizedBlocks() {
+        var cache = new BlockCache(100, 1);
+        cache.put(1, 0, ByteBuffer.allocate(200));
+
+        assert cache.get(1, 0) == null;
+        assert cache.byteSize() == 0;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.tomfran.lsm.sstable;
+
+import com.tomfran.lsm.comparator.KeyComparator;
+import com.tomfran.lsm.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
+
+class BlockTest {
+
+    @Test
+    public void prefixCompressedSearch() {
+        // keys sharing a long prefix, every third key with an older version and a tombstone
+        var items = new ObjectArrayList<ByteArrayPair>();
+        for (int i = 0; i < 100; i++) {
+            byte[] key = ("tenant-0001|entity-" + (1000 + i)).getBytes();
+            items.add(ByteArrayPair.of(ByteArrayPair.TYPE_VALUE, 10, key, new byte[]{(byte) i}));
+            if (i % 3 == 0)
+                items.add(ByteArrayPair.of(ByteArrayPair.TYPE_TOMBSTONE, 5, key, ByteArrayPair.TOMBSTONE));
+        }
+
+        int fullSize = 0;
+        for (int interval : new int[]{1, 4, 16, 1000}) {
+            var builder = new BlockBuilder(4096, interval);
+            items.forEach(builder::add);
+            byte[] bytes = builder.finish();
+            var block = new Block(ByteBuffer.wrap(bytes), KeyComparator.LEXICOGRAPHIC);
+
+            if (interval == 1)
+                fullSize = bytes.length;
+            else
+                assert bytes.length < fullSize / 2 : "keys not compressed, " + bytes.length + " of " + fullSize;
+
+            assert block.size() == items.size();
+
+            var cursor = block.cursor(0);
+            for (var item : items) {
+                var read = cursor.next();
+                assert compare(read.key(), item.key()) == 0 && read.sequence() == item.sequence();
+                assert read.isTombstone() == item.isTombstone();
+            }
+            assert !cursor.hasNext();
+
+            for (int i = 0; i < items.size(); i++) {
+                var item = items.get(i);
+                int index = block.search(item.key(), item.sequence());
+                assert index == i : "interval " + interval + ", expected " + i + ", got " + index;
+                assert compare(block.key(i), item.key()) == 0;
+            }
+
+            // newest visible version, before the first key, between keys and after the last one
+            assert block.search(items.get(0).key(), 7) == 1;
+            assert block.value(block.search(items.get(0).key(), 7)) == ByteArrayPair.TOMBSTONE;
+            assert block.search(items.get(0).key(), 3) == -3;
+            assert block.search("tenant-0001|entity-0999".getBytes()) == -1;
+            assert block.search("tenant-0001|entity-1000x".getBytes()) < 0;
+            assert block.search("tenant-0002|entity-1000".getBytes()) == -(items.size() + 1);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.tomfran.lsm.sstable;
+
+import com.tomfran.lsm.types.ByteArrayPair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.tomfran.lsm.TestUtils.assertPairEqual;
+import static com.tomfran.lsm.TestUtils.getRandomByteArray;
+import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
+
+class CodecTest {
+
+    @TempDir
+    static Path tempDirectory;
+
+    private static List<ByteArrayPair> generateItems(int n) {
+        List<ByteArrayPair> items = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] key = String.format("key_%06d", i).getBytes();
+            byte[] value = ("{\"id\": " + i + ", \"name\": \"item\", \"tags\": [\"a\", \"b\"]}").getBytes();
+            items.add(new ByteArrayPair(key, value));
+        }
+        return items;
+    }
+
+    @Test
+    public void shouldRoundTrip() {
+        for (byte[] block : List.of(new byte[0], getRandomByteArray(10000), new byte[10000])) {
+            byte[] compressed = Codec.DEFLATE.compress(block);
+            ByteBuffer restored = Codec.DEFLATE.decompress(ByteBuffer.wrap(compressed));
+
+            assert compare(block, restored.array()) == 0;
+        }
+    }
+
+    @Test
+    public void shouldRejectTruncatedBlock() {
+        byte[] block = new byte[4096];
+        for (int i = 0; i < block.length; i++)
+            block[i] = (byte) (i % 64);
+        byte[] compressed = Codec.DEFLATE.compress(block);
+
+        // cut in the middle of the stream, and right after the header
+        for (int length : new int[]{compressed.length / 2, 4}) {
+            boolean rejected = false;
+            try {
+                Codec.DEFLATE.decompress(ByteBuffer.wrap(compressed, 0, length));
+            } catch (RuntimeException e) {
+                rejected = e.getMessage().startsWith("Corrupted block");
+            }
+            assert rejected : "truncated block of " + length + " bytes accepted";
+        }
+    }
+
+    @Test
+    public void shouldReadCompressedTable() {
+        var items = generateItems(2000);
+        var options = new SSTableOptions().codec(Codec.DEFLATE);
+        var table = new SSTable(tempDirectory.toString(), items.iterator(), 1024 * 1024, options);
+        var plain = new SSTable(tempDirectory.toString(), items.iterator(), 1024 * 1024);
+
+        assert new File(table.filename + SSTable.DATA_FILE_EXTENSION).length() <
+               new File(plain.filename + SSTable.DATA_FILE_EXTENSION).length() / 2;
+
+        // the codec is read from the index
+        var reopened = new SSTable(table.filename);
+        for (var item : items)
+            assert compare(item.value(), reopened.get(item.key())) == 0;
+
+        var it = reopened.iterator();
+        for (var item : items)
+            assertPairEqual(item, it.next());
+
+        assert !it.hasNext();
+
+        table.close();
+        plain.close();
+        reopened.close();
+    }
+
+    @Test
+    public void shouldRecompressOnSortedRun() {
+        var items = generateItems(1000);
+        var compressed = new SSTable(tempDirectory.toString(), items.subList(0, 500).iterator(), 1024 * 1024,
+                                     new SSTableOptions().codec(Codec.DEFLATE));
+        var plain = new SSTable(tempDirectory.toString(), items.subList(500, 1000).iterator(), 1024 * 1024);
+
+        var merged = SSTable.sortedRun(tempDirectory.toString(), 1024 * 1024,
+                                       new SSTableOptions().codec(Codec.DEFLATE), compressed, plain).get(0);
+
+        assert merged.codec == Codec.DEFLATE;
+        for (var item : items)
+            assert compare(item.value(), merged.get(item.key())) == 0;
+
+        compressed.close();
+        plain.close();
+        merged.close();
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.tomfran.lsm.sstable;
 
+import com.tomfran.lsm.bloom.FilterType;
+import com.tomfran.lsm.bloom.XorFilter;
 import com.tomfran.lsm.comparator.ByteArrayComparator;
+import com.tomfran.lsm.comparator.KeyComparator;
 import com.tomfran.lsm.types.ByteArrayPair;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
@@ -9,7 +12,15 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static com.tomfran.lsm.TestUtils.getRandomPair;
 import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
@@ -67,6 +78,27 @@ class SSTableTest {
         }
     }
 
+    @Test
+    public void shouldFindItemsConcurrently() throws InterruptedException {
+        var failures = new AtomicInteger();
+
+        var threads = IntStream.range(0, 8).mapToObj(i -> new Thread(() -> {
+            for (int round = 0; round < 100; round++) {
+                for (var item : inserted) {
+                    var val = t.get(item.key());
+                    if (val == null || compare(item.value(), val) != 0)
+                        failures.incrementAndGet();
+                }
+            }
+        })).toList();
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+
+        assert failures.get() == 0 : failures.get() + " lookups failed";
+    }
+
     @Test
     public void shouldNotFind() {
         for (var item : skipped)
@@ -88,4 +120,288 @@ class SSTableTest {
         assert !it2.hasNext();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void seekIteratorTest() {
+        // skipped items fall between inserted ones, seeking to them must land on the next inserted item
+        for (int i = 0; i < skipped.size(); i++) {
+            var it = t.iterator(skipped.get(i).key());
+            int expected = i + 1;
+
+            while (it.hasNext()) {
+                var item = it.next();
+                assert compare(item.key(), inserted.get(expected++).key()) == 0;
+            }
+
+            assert expected == inserted.size() : "seek from " + i + " stopped at " + expected;
+        }
+
+        var it = t.iterator(inserted.get(0).key());
+        assert compare(it.next().key(), inserted.get(0).key()) == 0;
+    }
+
+    @Test
+    public void mappedTableTest() {
+        var m = new SSTable(t.filename, new SSTableOptions().readMode(SSTableOptions.ReadMode.MMAP));
+        assert m.mappedData != null;
+
+        for (var item : inserted)
+            assert compare(item.value(), m.get(item.key())) == 0;
+
+        for (var item : skipped)
+            assert m.get(item.key()) == null;
+
+        var it = m.iterator();
+        var it2 = inserted.iterator();
+        while (it.hasNext())
+            assert compare(it.next().key(), it2.next().key()) == 0;
+
+        assert !it2.hasNext();
+
+        var seek = m.iterator(skipped.get(0).key());
+        assert compare(seek.next().key(), inserted.get(1).key()) == 0;
+
+        m.close();
+    }
+
+    @Test
+    public void cachedTableTest() {
+        var cache = new BlockCache(1024 * 1024);
+        var c = new SSTable(t.filename, new SSTableOptions().blockCache(cache));
+
+        for (int i = 0; i < 2; i++)
+            for (var item : inserted)
+                assert compare(item.value(), c.get(item.key())) == 0;
+
+        // the second round is served from memory
+        assert cache.hits() >= inserted.size();
+        assert cache.byteSize() > 0;
+
+        c.close();
+    }
+
+    @Test
+    public void parallelSortedRunTest() {
+        // overlapping tables, each key is overwritten by the newer ones
+        int numTables = 4, numKeys = 20_000;
+        var tables = new SSTable[numTables];
+        for (int i = 0; i < numTables; i++) {
+            int version = numTables - i, step = i + 1;
+            var items = IntStream.range(0, numKeys)
+                                 .filter(k -> k % step == 0)
+                                 .mapToObj(k -> new ByteArrayPair(key(k), new byte[]{(byte) version}))
+                                 .iterator();
+            tables[i] = new SSTable(tempDirectory.toString(), items, 100);
+        }
+
+        var pool = new ForkJoinPool(4);
+        var run = SSTable.sortedRun(tempDirectory.toString(), 64 * 1024, new SSTableOptions(), pool, new long[0], false, tables);
+        pool.shutdown();
+
+        assert run.size() >= 4 : "merge was not split, " + run.size() + " tables";
+
+        int expected = 0;
+        for (var table : run) {
+            for (var item : table) {
+                assert compare(item.key(), key(expected)) == 0 : "unexpected key at " + expected;
+                assert item.value()[0] == numTables : "stale value for key " + expected;
+                expected++;
+            }
+        }
+        assert expected == numKeys : "merged " + expected + " keys";
+
+        run.forEach(SSTable::close);
+        for (var table : tables)
+            table.close();
+    }
+
+    @Test
+    public void failedSubcompactionTest() throws IOException {
+        String dir = tempDirectory + "/failedSubcompaction";
+        Files.createDirectories(Path.of(dir));
+
+        // a key failing to compare in the pool, that is in the last subcompaction only
+        byte[] poison = key(15_000);
+        var failing = new KeyComparator() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                if (Thread.currentThread() instanceof ForkJoinWorkerThread && (Arrays.equals(a, poison) || Arrays.equals(b, poison)))
+                    throw new RuntimeException("injected merge failure");
+                return ByteArrayComparator.compare(a, b);
+            }
+
+            @Override
+            public String name() {
+                return "lexicographic";
+            }
+        };
+
+        var options = new SSTableOptions().comparator(failing);
+        // values large enough for the merge to be split in subcompactions
+        var tables = new SSTable[2];
+        for (int i = 0; i < tables.length; i++) {
+            var items = IntStream.range(0, 20_000).mapToObj(k -> new ByteArrayPair(key(k), new byte[64])).iterator();
+            tables[i] = new SSTable(dir, items, Long.MAX_VALUE, options);
+        }
+
+        List<Path> before;
+        try (var files = Files.list(Path.of(dir))) {
+            before = files.sorted().toList();
+        }
+
+        var pool = new ForkJoinPool(4);
+        boolean failed = false;
+        try {
+            SSTable.sortedRun(dir, 64 * 1024, options, pool, new long[0], false, tables);
+        } catch (RuntimeException e) {
+            failed = true;
+        }
+        pool.shutdown();
+        assert failed : "the merge did not fail";
+
+        // the tables written by the other subcompactions are gone
+        try (var files = Files.list(Path.of(dir))) {
+            assert files.sorted().toList().equals(before) : "files left behind by the failed merge";
+        }
+
+        for (var table : tables)
+            table.close();
+    }
+
+    @Test
+    public void tombstoneTest() {
+        // even keys deleted, odd keys with an empty value
+        var deletes = IntStream.range(0, 100)
+                               .mapToObj(k -> k % 2 == 0 ? ByteArrayPair.tombstone(key(k)) : new ByteArrayPair(key(k), new byte[]{}))
+                               .iterator();
+        var values = IntStream.range(0, 200)
+                              .mapToObj(k -> new ByteArrayPair(key(k), new byte[]{1}))
+                              .iterator();
+
+        var newer = new SSTable(tempDirectory.toString(), deletes, 10);
+        var older = new SSTable(tempDirectory.toString(), values, 10);
+
+        // deletes and empty values are told apart
+        assert newer.get(key(0)) == ByteArrayPair.TOMBSTONE;
+        assert newer.get(key(1)) != ByteArrayPair.TOMBSTONE && newer.get(key(1)).length == 0;
+
+        var kept = SSTable.sortedRun(tempDirectory.toString(), 1024 * 1024, newer, older);
+        assert kept.get(0).get(key(2)) == ByteArrayPair.TOMBSTONE;
+
+        // at the last level, tombstones go away with the versions they shadow
+        var pool = new ForkJoinPool(2);
+        var dropped = SSTable.sortedRun(tempDirectory.toString(), 1024 * 1024, new SSTableOptions(), pool, new long[0], true, newer, older);
+        pool.shutdown();
+
+        int count = 0;
+        for (var table : dropped) {
+            for (var item : table) {
+                assert !item.isTombstone();
+                count++;
+            }
+        }
+        assert count == 150 : "expected 150 live keys, got " + count;
+
+        kept.forEach(SSTable::close);
+        dropped.forEach(SSTable::close);
+        newer.close();
+        older.close();
+    }
+
+    @Test
+    public void bloomSizingTest() {
+        var items = IntStream.range(0, 5000)
+                             .mapToObj(i -> new ByteArrayPair(key(i), new byte[]{1}))
+                             .toList();
+
+        var ten = new SSTable(tempDirectory.toString(), items.iterator(), Long.MAX_VALUE,
+                              new SSTableOptions().bloomBitsPerKey(10));
+        var five = new SSTable(tempDirectory.toString(), items.iterator(), Long.MAX_VALUE,
+                               new SSTableOptions().bloomBitsPerKey(5).filterType(FilterType.BLOOM));
+
+        // filters follow the number of keys, not a fixed default size
+        assert ten.filter.size() >= 50_000 && ten.filter.size() < 52_000 : "size " + ten.filter.size();
+        assert five.filter.size() >= 24_000 && five.filter.size() < 26_000 : "size " + five.filter.size();
+
+        var xor = new SSTable(tempDirectory.toString(), items.iterator(), Long.MAX_VALUE,
+                              new SSTableOptions().bloomBitsPerKey(10).filterType(FilterType.XOR));
+        var reopened = new SSTable(xor.filename, new SSTableOptions());
+        assert reopened.filter instanceof XorFilter && reopened.filter.size() == xor.filter.size();
+
+        for (var item : items)
+            assert ten.get(item.key()) != null && five.get(item.key()) != null && reopened.get(item.key()) != null;
+
+        ten.close();
+        five.close();
+        xor.close();
+        reopened.close();
+    }
+
+    @Test
+    public void prefixFilterTest() {
+        var extractor = PrefixExtractor.delimited((byte) '|', 1);
+        assert extractor.prefix("abc".getBytes()) == null;
+        assert compare(extractor.prefix("ab|c|d".getBytes()), "ab|".getBytes()) == 0;
+        assert compare(PrefixExtractor.fixedLength(2).prefix("abc".getBytes()), "ab".getBytes()) == 0;
+
+        var items = IntStream.range(0, 1000)
+                             .mapToObj(i -> new ByteArrayPair(("t" + i % 10 + "|" + (1000 + i)).getBytes(), new byte[]{1}))
+                             .sorted()
+                             .toList();
+
+        var table = new SSTable(tempDirectory.toString(), items.iterator(), Long.MAX_VALUE,
+                                new SSTableOptions().prefixExtractor(extractor));
+        var reopened = new SSTable(table.filename, new SSTableOptions());
+
+        for (int i = 0; i < 10; i++)
+            assert reopened.mightContainPrefix(("t" + i + "|").getBytes()) : "missing prefix " + i;
+
+        int excluded = 0;
+        for (int i = 10; i < 1000; i++)
+            excluded += reopened.mightContainPrefix(("t" + i + "|").getBytes()) ? 0 : 1;
+        assert excluded > 900 : "only " + excluded + " prefixes excluded";
+
+        var plain = new SSTable(tempDirectory.toString(), items.iterator(), Long.MAX_VALUE, new SSTableOptions());
+        assert plain.mightContainPrefix("t10|".getBytes());
+
+        table.close();
+        reopened.close();
+        plain.close();
+    }
+
+    @Test
+    public void comparatorTest() {
+        // one byte keys come first in length-first order, last in lexicographic order
+        var items = IntStream.range(0, 300)
+                             .mapToObj(i -> new ByteArrayPair(i < 100 ? new byte[]{(byte) (i + 100)} : key(i), new byte[]{1}))
+                             .sorted((a, b) -> KeyComparator.LENGTH_FIRST.compare(a.key(), b.key()))
+                             .toList();
+
+        var options = new SSTableOptions().comparator(KeyComparator.LENGTH_FIRST).blockSize(64);
+        var table = new SSTable(tempDirectory.toString(), items.iterator(), Long.MAX_VALUE, options);
+        var reopened = new SSTable(table.filename, options);
+
+        assert reopened.comparator() == KeyComparator.LENGTH_FIRST;
+        for (var item : items)
+            assert reopened.get(item.key()) != null : "missing key";
+
+        var it = reopened.iterator(key(200));
+        assert compare(it.next().key(), key(200)) == 0;
+
+        boolean rejected = false;
+        try {
+            new SSTable(table.filename, new SSTableOptions());
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assert rejected : "table opened with another comparator";
+
+        table.close();
+        reopened.close();
+    }
+
+    private static byte[] key(int k) {
+        // 7 bits per byte, so that signed byte comparison follows the int order
+        return new byte[]{(byte) (k >>> 14 & 127), (byte) (k >>> 7 & 127), (byte) (k & 127)};
+    }
+
+}
@@ -1,12 +1,23 @@
 package com.tomfran.lsm.tree;
 
+import com.tomfran.lsm.memtable.Memtable;
+import com.tomfran.lsm.sstable.PrefixExtractor;
+import com.tomfran.lsm.sstable.SSTable;
+import com.tomfran.lsm.types.ByteArrayPair;
+import com.tomfran.lsm.wal.WriteAheadLog;
 import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.IntStream;
 
+import static com.tomfran.lsm.TestUtils.getRandomByteArray;
 import static com.tomfran.lsm.TestUtils.getRandomPair;
 import static com.tomfran.lsm.comparator.ByteArrayComparator.compare;
 
@@ -25,7 +36,7 @@ class LSMTreeTest {
         Thread.sleep(500);
 
         assert tree.mutableMemtable.byteSize() >= 1 : "mutable memtable size is " + tree.mutableMemtable.byteSize();
-        assert !tree.levels.get(0).isEmpty() : "table is null";
+        assert !tree.version.levels.get(0).isEmpty() : "table is null";
 
         tree.stop();
     }
@@ -37,7 +48,7 @@ class LSMTreeTest {
         Object2ObjectArrayMap<byte[], byte[]> items = new Object2ObjectArrayMap<>();
 
         IntStream.range(0, 10).forEach(i -> {
-            var it = getRandomPair(2, 2);
+            var it = new ByteArrayPair(new byte[]{(byte) i}, getRandomByteArray(2));
             tree.add(it);
             items.put(it.key(), it.value());
         });
@@ -51,4 +62,504 @@ class LSMTreeTest {
         tree.stop();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void recoverFromDisk() throws InterruptedException {
+        String dir = tempDirectory + "/test3";
+        long memtableSize = maxSize * 4;
+        LSMTree tree = new LSMTree(memtableSize, levelSize, dir);
+
+        Object2ObjectArrayMap<byte[], byte[]> items = new Object2ObjectArrayMap<>();
+
+        // distinct keys, the map compares arrays by reference and would keep overwritten values
+        IntStream.range(0, 100).forEach(i -> {
+            var it = new ByteArrayPair(new byte[]{(byte) (i >> 8), (byte) i}, getRandomByteArray(2));
+            tree.add(it);
+            items.put(it.key(), it.value());
+        });
+
+        // let some memtables reach the disk, the rest is recovered from the log
+        Thread.sleep(300);
+        tree.stop();
+
+        LSMTree reopened = new LSMTree(dir, new LSMTreeOptions().memtableMaxByteSize(memtableSize)
+                                                                .levelZeroMaxSize(levelSize)
+                                                                .openMode(LSMTreeOptions.OpenMode.OPEN));
+
+        for (var it : items.entrySet())
+            assert compare(reopened.get(it.getKey()), it.getValue()) == 0;
+
+        Thread.sleep(1000);
+
+        assert reopened.immutableMemtables.isEmpty() : "recovered memtables were not flushed";
+        for (var it : items.entrySet())
+            assert compare(reopened.get(it.getKey()), it.getValue()) == 0;
+
+        reopened.stop();
+    }
+
+    @Test
+    public void scanRange() throws InterruptedException {
+        LSMTree tree = new LSMTree(maxSize * 4, 2, tempDirectory + "/test4");
+
+        // single byte keys, overwritten and deleted across memtables and levels
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++)
+                tree.add(new ByteArrayPair(new byte[]{(byte) i}, new byte[]{(byte) round}));
+            Thread.sleep(200);
+        }
+
+        for (int i = 0; i < 100; i += 10)
+            tree.delete(new byte[]{(byte) i});
+
+        try (LSMTreeIterator it = tree.scan(new byte[]{20}, new byte[]{60})) {
+            int expected = 21;
+            while (it.hasNext()) {
+                var item = it.next();
+                assert item.key()[0] == expected : "expected key " + expected + ", got " + item.key()[0];
+                assert item.value()[0] == 2 : "stale value for key " + expected;
+
+                expected += expected % 10 == 9 ? 2 : 1;
+            }
+            assert expected == 61 : "scan stopped at " + expected;
+        }
+
+        var it = tree.seek(new byte[]{95});
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assert count == 5 : "expected 5 items, got " + count;
+
+        tree.stop();
+    }
+
+    @Test
+    public void levelsDoNotOverlap() throws InterruptedException {
+        LSMTree tree = new LSMTree(maxSize * 8, 2, tempDirectory + "/test5");
+
+        Object2ObjectArrayMap<byte[], byte[]> items = new Object2ObjectArrayMap<>();
+
+        IntStream.range(0, 400).forEach(i -> {
+            var it = getRandomPair(4, 2);
+            tree.add(it);
+            items.put(it.key(), it.value());
+        });
+
+        Thread.sleep(2000);
+
+        var levels = tree.version.levels;
+        assert levels.size() > 2 : "expected deeper levels, got " + levels.size();
+
+        for (int i = 1; i < levels.size(); i++) {
+            var level = levels.get(i);
+            for (int j = 1; j < level.size(); j++)
+                assert compare(level.get(j - 1).maxKey(), level.get(j).minKey()) < 0 : "overlap in level " + i;
+        }
+
+        for (var it : items.entrySet())
+            assert compare(tree.get(it.getKey()), it.getValue()) == 0;
+
+        tree.stop();
+    }
+
+    @Test
+    public void readDuringCompaction() throws InterruptedException {
+        LSMTree tree = new LSMTree(maxSize * 8, 2, tempDirectory + "/test6");
+
+        var items = IntStream.range(0, 200).mapToObj(i -> getRandomPair(4, 2)).toList();
+        items.forEach(tree::add);
+
+        // readers keep going while flushes and compactions swap versions and delete tables
+        var failures = new AtomicInteger();
+        var readers = IntStream.range(0, 4).mapToObj(t -> new Thread(() -> {
+            long end = System.currentTimeMillis() + 1000;
+            while (System.currentTimeMillis() < end)
+                for (var it : items)
+                    if (compare(tree.get(it.key()), it.value()) != 0)
+                        failures.incrementAndGet();
+        })).toList();
+
+        readers.forEach(Thread::start);
+        for (Thread reader : readers)
+            reader.join();
+
+        assert failures.get() == 0 : failures.get() + " failed lookups";
+
+        tree.stop();
+    }
+
+    @Test
+    public void stallWrites() {
+        var options = new LSMTreeOptions().memtableMaxByteSize(maxSize).writeStallLimits(1, 2);
+
+        // flushes slower than the writes, so that the hard limit is reached however fast the disk is
+        LSMTree tree = new LSMTree(tempDirectory + "/test7", options) {
+            @Override
+            SSTable writeTable(Memtable memtable) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+                return super.writeTable(memtable);
+            }
+        };
+
+        for (int i = 0; i < 200; i++) {
+            tree.add(getRandomPair(2, 2));
+            assert tree.immutableMemtables.size() <= 2 : "hard limit exceeded: " + tree.immutableMemtables.size();
+        }
+
+        var metrics = tree.stallMetrics();
+        assert metrics.stoppedWrites() > 0 : "writes were never stopped, " + metrics;
+        assert metrics.stopNanos() > 0;
+
+        tree.stop();
+    }
+
+    @Test
+    public void parallelFlush() throws InterruptedException {
+        LSMTree tree = new LSMTree(tempDirectory + "/test8", new LSMTreeOptions().memtableMaxByteSize(maxSize * 4)
+                                                                                 .levelZeroMaxSize(1000)
+                                                                                 .flushThreads(4));
+
+        // the same keys overwritten in every memtable, flushed concurrently
+        for (int round = 0; round < 50; round++)
+            for (int i = 0; i < 20; i++)
+                tree.add(new ByteArrayPair(new byte[]{(byte) i}, new byte[]{(byte) round}));
+
+        Thread.sleep(500);
+
+        assert tree.immutableMemtables.isEmpty() : tree.immutableMemtables.size() + " memtables not flushed";
+        assert tree.flushedTables.isEmpty() : "tables left out of level zero";
+
+        // level zero must still go from the newest table to the oldest
+        for (int i = 0; i < 20; i++)
+            assert tree.get(new byte[]{(byte) i})[0] == 49 : "stale value for key " + i;
+
+        tree.stop();
+    }
+
+    @Test
+    public void deleteAndEmptyValue() throws InterruptedException {
+        LSMTree tree = new LSMTree(maxSize * 4, 2, tempDirectory + "/test9");
+
+        for (int i = 0; i < 100; i++)
+            tree.add(new ByteArrayPair(new byte[]{(byte) i}, new byte[]{1}));
+
+        for (int i = 0; i < 100; i += 2)
+            tree.delete(new byte[]{(byte) i});
+
+        tree.add(new ByteArrayPair(new byte[]{1}, new byte[]{}));
+
+        // check both in memory and once tables are compacted
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                byte[] value = tree.get(new byte[]{(byte) i});
+                if (i % 2 == 0)
+                    assert value == null : "deleted key " + i + " found";
+                else
+                    assert value != null && value.length == (i == 1 ? 0 : 1) : "wrong value for key " + i;
+            }
+            Thread.sleep(1000);
+        }
+
+        tree.stop();
+    }
+
+    @Test
+    public void multiGet() throws InterruptedException {
+        LSMTree tree = new LSMTree(maxSize * 8, 2, tempDirectory + "/test10");
+
+        Object2ObjectArrayMap<byte[], byte[]> items = new Object2ObjectArrayMap<>();
+        IntStream.range(0, 300).forEach(i -> {
+            var it = getRandomPair(4, 2);
+            tree.add(it);
+            items.put(it.key(), it.value());
+        });
+
+        var deleted = items.keySet().stream().limit(50).toList();
+        deleted.forEach(tree::delete);
+
+        // keys spread over memtables and levels, missing and deleted keys included
+        Thread.sleep(500);
+        var keys = new ObjectArrayList<byte[]>(items.keySet());
+        keys.add(getRandomPair(8, 2).key());
+
+        var values = tree.multiGet(keys);
+        assert values.size() == keys.size();
+
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] expected = tree.get(keys.get(i));
+            assert expected == null ? values.get(i) == null : compare(expected, values.get(i)) == 0 : "wrong value at " + i;
+        }
+
+        for (int i = 0; i < 50; i++)
+            assert values.get(i) == null : "deleted key found";
+
+        assert values.get(keys.size() - 1) == null;
+
+        tree.stop();
+    }
+
+    @Test
+    public void writeBatch() {
+        String dir = tempDirectory + "/test11";
+        LSMTree tree = new LSMTree(dir, new LSMTreeOptions().memtableMaxByteSize(maxSize * 4));
+
+        var batch = new WriteBatch();
+        for (int i = 0; i < 100; i++)
+            batch.put(new byte[]{(byte) i}, new byte[]{1});
+        for (int i = 0; i < 100; i += 2)
+            batch.delete(new byte[]{(byte) i});
+
+        // far over the memtable size, still inserted in a single memtable and logged as one record
+        tree.write(batch);
+        tree.stop();
+
+        LSMTree reopened = new LSMTree(dir, new LSMTreeOptions().memtableMaxByteSize(maxSize * 4)
+                                                                .openMode(LSMTreeOptions.OpenMode.OPEN));
+
+        for (int i = 0; i < 100; i++) {
+            byte[] value = reopened.get(new byte[]{(byte) i});
+            assert i % 2 == 0 ? value == null : value != null && value[0] == 1 : "wrong value for key " + i;
+        }
+
+        reopened.stop();
+    }
+
+    @Test
+    public void snapshotReads() throws InterruptedException {
+        LSMTree tree = new LSMTree(maxSize * 4, 2, tempDirectory + "/test12");
+
+        for (int i = 0; i < 100; i++)
+            tree.add(new ByteArrayPair(new byte[]{(byte) i}, new byte[]{0}));
+
+        Snapshot snapshot = tree.getSnapshot();
+
+        // overwrite and delete while the snapshot is live, old versions must survive flushes and compactions
+        for (int round = 1; round < 4; round++) {
+            for (int i = 0; i < 100; i++)
+                tree.add(new ByteArrayPair(new byte[]{(byte) i}, new byte[]{(byte) round}));
+            Thread.sleep(200);
+        }
+        for (int i = 0; i < 100; i += 2)
+            tree.delete(new byte[]{(byte) i});
+        tree.add(new ByteArrayPair(new byte[]{(byte) 100}, new byte[]{3}));
+
+        Thread.sleep(1000);
+
+        var keys = new ObjectArrayList<byte[]>();
+        for (int i = 0; i <= 100; i++)
+            keys.add(new byte[]{(byte) i});
+
+        var values = tree.multiGet(keys, snapshot);
+        for (int i = 0; i < 100; i++) {
+            assert tree.get(keys.get(i), snapshot)[0] == 0 : "wrong snapshot value for key " + i;
+            assert values.get(i)[0] == 0 : "wrong snapshot multiGet value for key " + i;
+
+            byte[] value = tree.get(keys.get(i));
+            assert i % 2 == 0 ? value == null : value[0] == 3 : "wrong current value for key " + i;
+        }
+        assert tree.get(keys.get(100), snapshot) == null : "key written after the snapshot found";
+        assert values.get(100) == null;
+
+        try (LSMTreeIterator it = tree.scan(null, null, snapshot)) {
+            int count = 0;
+            while (it.hasNext()) {
+                var item = it.next();
+                assert item.key()[0] == count && item.value()[0] == 0 : "wrong snapshot scan item " + count;
+                count++;
+            }
+            assert count == 100 : "snapshot scan returned " + count + " items";
+        }
+
+        tree.releaseSnapshot(snapshot);
+        tree.stop();
+    }
+
+    @Test
+    public void prefixScan() throws InterruptedException {
+        LSMTree tree = new LSMTree(tempDirectory + "/test13",
+                                   new LSMTreeOptions().memtableMaxByteSize(maxSize * 8)
+                                                       .prefixExtractor(PrefixExtractor.delimited((byte) '|', 1)));
+
+        // each tenant written apart, so that most tables only hold a few of them
+        for (int tenant = 0; tenant < 8; tenant++) {
+            for (int i = 0; i < 50; i++)
+                tree.add(new ByteArrayPair(("t" + tenant + "|" + (100 + i)).getBytes(), new byte[]{(byte) tenant}));
+            Thread.sleep(50);
+        }
+        tree.delete("t3|110".getBytes());
+
+        Thread.sleep(500);
+
+        try (LSMTreeIterator it = tree.scanPrefix("t3|".getBytes())) {
+            int count = 0;
+            byte[] last = null;
+            while (it.hasNext()) {
+                var item = it.next();
+                assert new String(item.key()).startsWith("t3|") && item.value()[0] == 3 : "wrong item " + new String(item.key());
+                assert last == null || compare(last, item.key()) < 0 : "keys out of order";
+                last = item.key();
+                count++;
+            }
+            assert count == 49 : "expected 49 keys, got " + count;
+        }
+
+        var it = tree.scanPrefix("t9|".getBytes());
+        assert !it.hasNext() : "unknown prefix found";
+
+        tree.stop();
+    }
+
+    @Test
+    public void recoverWithoutManifest() throws Exception {
+        String dir = tempDirectory + "/test15";
+        var options = new LSMTreeOptions().memtableMaxByteSize(maxSize * 40).levelZeroMaxSize(100);
+        LSMTree tree = new LSMTree(dir, options);
+
+        // every key is written twice, in different tables, the second value must win
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 200; i++)
+                tree.add(new ByteArrayPair(("k" + (1000 + i)).getBytes(), new byte[]{(byte) round}));
+            Thread.sleep(300);
+        }
+        tree.stop();
+        assert tree.version.levels.get(0).size() > 1 : "no table flushed";
+
+        Files.delete(Path.of(dir, Manifest.MANIFEST_FILENAME));
+        LSMTree reopened = new LSMTree(dir, options.openMode(LSMTreeOptions.OpenMode.OPEN));
+
+        assert !reopened.version.levels.get(0).isEmpty() : "tables were dropped";
+        for (int i = 0; i < 200; i++) {
+            byte[] value = reopened.get(("k" + (1000 + i)).getBytes());
+            assert value != null && value[0] == 1 : "wrong value for " + i;
+        }
+        assert Files.exists(Path.of(dir, Manifest.MANIFEST_FILENAME)) : "manifest not rewritten";
+
+        reopened.stop();
+    }
+
+    @Test
+    public void concurrentWritesReplay() throws Exception {
+        String dir = tempDirectory + "/test16";
+        LSMTree tree = new LSMTree(dir, new LSMTreeOptions().memtableMaxByteSize(1024 * 1024));
+
+        // writers race on the same keys, the log and the memtable must agree on the last write of each
+        var threads = IntStream.range(0, 8).mapToObj(t -> new Thread(() -> {
+            for (int i = 0; i < 2000; i++)
+                tree.add(new ByteArrayPair(new byte[]{(byte) (i % 10)}, new byte[]{(byte) t}));
+        })).toList();
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+
+        byte[][] before = new byte[10][];
+        for (int k = 0; k < 10; k++)
+            before[k] = tree.get(new byte[]{(byte) k});
+        tree.stop();
+
+        try (var files = Files.list(Path.of(dir))) {
+            for (Path log : files.filter(f -> WriteAheadLog.getLogNumber(f.getFileName().toString()) != -1).toList()) {
+                long[] last = {0};
+                WriteAheadLog.replay(log.toString(), item -> {
+                    assert item.sequence() > last[0] : "log out of sequence order";
+                    last[0] = item.sequence();
+                });
+            }
+        }
+
+        LSMTree reopened = new LSMTree(dir, new LSMTreeOptions().openMode(LSMTreeOptions.OpenMode.OPEN));
+        for (int k = 0; k < 10; k++)
+            assert compare(reopened.get(new byte[]{(byte) k}), before[k]) == 0 : "key " + k + " changed on recovery";
+
+        reopened.stop();
+    }
+
+    @Test
+    public void flushFailure() throws InterruptedException {
+        String dir = tempDirectory + "/test17";
+        var failures = new AtomicInteger(1);
+        var options = new LSMTreeOptions().memtableMaxByteSize(maxSize * 4).writeStallLimits(2, 3);
+
+        LSMTree tree = new LSMTree(dir, options) {
+            @Override
+            SSTable writeTable(Memtable memtable) {
+                if (failures.getAndDecrement() > 0)
+                    throw new RuntimeException("injected flush failure");
+                return super.writeTable(memtable);
+            }
+        };
+
+        // a transient failure is retried
+        for (int i = 0; i < 20; i++)
+            tree.add(new ByteArrayPair(("k" + (1000 + i)).getBytes(), new byte[]{1}));
+        Thread.sleep(500);
+        assert !tree.version.levels.get(0).isEmpty() : "memtable not flushed after a retry";
+
+        // a persistent one makes writes fail instead of stalling forever
+        failures.set(Integer.MAX_VALUE);
+        boolean refused = false;
+        for (int i = 20; i < 10_000 && !refused; i++) {
+            try {
+                tree.add(new ByteArrayPair(("k" + (1000 + i)).getBytes(), new byte[]{1}));
+            } catch (IllegalStateException e) {
+                refused = e.getCause().getMessage().equals("injected flush failure");
+            }
+        }
+        assert refused : "writes accepted after a failed flush";
+
+        boolean reported = false;
+        try {
+            tree.stop();
+        } catch (IllegalStateException e) {
+            reported = true;
+        }
+        assert reported : "stop did not report the failed flush";
+
+        // nothing is lost, the unflushed memtables are recovered from their logs
+        LSMTree reopened = new LSMTree(dir, options.openMode(LSMTreeOptions.OpenMode.OPEN));
+        for (int i = 0; i < 20; i++)
+            assert reopened.get(("k" + (1000 + i)).getBytes()) != null : "lost key " + i;
+
+        reopened.stop();
+    }
+
+    @Test
+    public void offHeapMemtables() throws InterruptedException {
+        String dir = tempDirectory + "/test14";
+        var options = new LSMTreeOptions().memtableMaxByteSize(maxSize * 40)
+                                          .memtableStorage(Memtable.Storage.OFF_HEAP);
+        LSMTree tree = new LSMTree(dir, options);
+
+        for (int i = 0; i < 300; i++)
+            tree.add(new ByteArrayPair(("k" + (1000 + i)).getBytes(), new byte[]{(byte) i}));
+        for (int i = 0; i < 300; i += 10)
+            tree.delete(("k" + (1000 + i)).getBytes());
+        for (int i = 5; i < 300; i += 10)
+            tree.add(new ByteArrayPair(("k" + (1000 + i)).getBytes(), new byte[]{-1}));
+
+        // the last memtables are recovered from the log into off-heap memtables
+        Thread.sleep(300);
+        tree.stop();
+        LSMTree reopened = new LSMTree(dir, options.openMode(LSMTreeOptions.OpenMode.OPEN));
+
+        for (int i = 0; i < 300; i++) {
+            byte[] value = reopened.get(("k" + (1000 + i)).getBytes());
+            if (i % 10 == 0)
+                assert value == null : "deleted key " + i + " found";
+            else
+                assert value != null && value[0] == (byte) (i % 10 == 5 ? -1 : i) : "wrong value for " + i;
+        }
+
+        try (LSMTreeIterator it = reopened.scan("k1100".getBytes(), "k1200".getBytes())) {
+            int count = 0;
+            while (it.hasNext()) {
+                assert !new String(it.next().key()).endsWith("0") : "deleted key scanned";
+                count++;
+            }
+            assert count == 90 : "expected 90 keys, got " + count;
+        }
+
+        reopened.stop();
+    }
+
+}
@@ -32,4 +32,31 @@ class IteratorMergerTest {
         assert merger.next() == null;
     }
 
+    @Test
+    public void shouldPreferFirstIterators() {
+        // the last element of the second iterator must not win over the first one
+        IteratorMerger<Pair> merger = new IteratorMerger<>(
+                List.of(new Pair(1, 0), new Pair(2, 0), new Pair(3, 0)).iterator(),
+                List.of(new Pair(2, 1)).iterator(),
+                List.of(new Pair(3, 2)).iterator()
+        );
+
+        int[][] expected = {{1, 0}, {2, 0}, {2, 1}, {3, 0}, {3, 2}};
+        for (int[] e : expected) {
+            Pair p = merger.next();
+            assert p.key == e[0] && p.source == e[1] : "Expected " + e[0] + " from " + e[1] + " but got " + p;
+        }
+
+        assert !merger.hasNext();
+    }
+
+    private record Pair(int key, int source) implements Comparable<Pair> {
+
+        @Override
+        public int compareTo(Pair o) {
+            return Integer.compare(key, o.key);
+        }
+
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package com.tomfran.lsm.wal;
+
+import com.tomfran.lsm.TestUtils;
+import com.tomfran.lsm.types.ByteArrayPair;
+import com.tomfran.lsm.wal.WriteAheadLog.SyncMode;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.tomfran.lsm.TestUtils.assertPairEqual;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    static Path tempDirectory;
+
+    @Test
+    public void shouldReplay() {
+        WriteAheadLog log = new WriteAheadLog(tempDirectory.toString(), SyncMode.WRITE);
+
+        var items = Stream.generate(TestUtils::getRandomPair).limit(100).toList();
+        items.subList(0, 50).forEach(log::append);
+        log.append(items.subList(50, 100));
+        log.close();
+
+        var replayed = new ObjectArrayList<ByteArrayPair>();
+        long n = WriteAheadLog.replay(log.filename, replayed::add);
+
+        assert n == items.size() : "replayed " + n + " items";
+        for (int i = 0; i < items.size(); i++)
+            assertPairEqual(items.get(i), replayed.get(i));
+    }
+
+    @Test
+    public void shouldStopAtTornRecord() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(tempDirectory.toString(), SyncMode.NONE);
+
+        var items = Stream.generate(TestUtils::getRandomPair).limit(10).toList();
+        items.forEach(log::append);
+        log.close();
+
+        // simulate a crash in the middle of the last record
+        try (var f = new RandomAccessFile(log.filename, "rw")) {
+            f.setLength(f.length() - 3);
+        }
+
+        var replayed = new ObjectArrayList<ByteArrayPair>();
+        WriteAheadLog.replay(log.filename, replayed::add);
+
+        assert replayed.size() == items.size() - 1 : "replayed " + replayed.size() + " items";
+        for (int i = 0; i < replayed.size(); i++)
+            assertPairEqual(items.get(i), replayed.get(i));
+    }
+
+    @Test
+    public void shouldGroupCommit() throws InterruptedException {
+        WriteAheadLog log = new WriteAheadLog(tempDirectory.toString(), SyncMode.BATCH);
+
+        int threads = 8, perThread = 100;
+        List<Thread> writers = IntStream.range(0, threads).mapToObj(t -> new Thread(() -> {
+            for (int i = 0; i < perThread; i++)
+                log.sync(log.append(TestUtils.getRandomPair(8, 8)));
+        })).toList();
+
+        writers.forEach(Thread::start);
+        for (Thread w : writers)
+            w.join();
+
+        log.close();
+
+        long n = WriteAheadLog.replay(log.filename, p -> {});
+        assert n == (long) threads * perThread : "replayed " + n + " items";
+    }
+
+    @Test
+    public void shouldOpenReadOnly() {
+        WriteAheadLog log = new WriteAheadLog(tempDirectory.toString(), SyncMode.NONE);
+        log.append(TestUtils.getRandomPair());
+        log.close();
+        long length = new File(log.filename).length();
+
+        // a recovered segment can not be extended
+        WriteAheadLog recovered = WriteAheadLog.open(log.filename);
+        boolean rejected = false;
+        try {
+            recovered.append(TestUtils.getRandomPair());
+        } catch (IllegalStateException e) {
+            rejected = true;
+        }
+        assert rejected : "append to a recovered segment";
+        assert new File(log.filename).length() == length;
+        assert WriteAheadLog.replay(recovered.filename, item -> {}) == 1;
+
+        recovered.closeAndDelete();
+        assert !new File(log.filename).exists();
+    }
+
+    @Test
+    public void shouldParseLogNumber() {
+        assert WriteAheadLog.getLogNumber("wal_42.log") == 42;
+        assert WriteAheadLog.getLogNumber("sst_42.data") == -1;
+        assert WriteAheadLog.getLogNumber("wal_x.log") == -1;
+    }
+
+}